@@ -0,0 +1,28 @@
+package ai;
+
+import model.QubicBoard;
+
+/**
+ * An AI that can be told how long to think.  It keeps a best move ready
+ * while it searches, so when the budget runs out it still answers at
+ * once with the best move found so far.
+ * @author John Thomson
+ */
+public interface AnytimeAI extends QubicAI {
+	/**
+	 * Makes the AI pick a move within the given budget.  Like go(), the
+	 * controller needs to actually make the move.
+	 * @param budget How long the AI may search
+	 * @return the move and how far the search got
+	 */
+	public SearchResult go(SearchBudget budget);
+
+	/**
+	 * Same as go(budget), but in the given position instead of the AI's
+	 * own board, as go(position) is.
+	 * @param position A snapshot of the AI's board
+	 * @param budget How long the AI may search
+	 * @return the move, a square of the position, and how far the search got
+	 */
+	public SearchResult go(QubicBoard position, SearchBudget budget);
+}
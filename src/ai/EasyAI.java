@@ -1,13 +1,10 @@
 package ai;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.PriorityQueue;
+import java.util.logging.Logger;
 
 import model.QubicBoard;
-import model.Row;
 import model.Square;
-import model.Row.RowState;
+import model.QubicBoard.Player;
 
 /**
  * This is the easy AI, it will work with a very basic set of instructions
@@ -15,69 +12,50 @@ import model.Row.RowState;
  * @author John Thomson
  *
  */
-public class EasyAI implements QubicAI {
+public class EasyAI implements WeightedAI, MeasuredAI {
+	private static final Logger LOG = Logger.getLogger(EasyAI.class.getName());
 	private QubicBoard board;
+	private Evaluator evaluator;
+	private int[] moves;
+	private int[] values;
+	private SearchResult lastResult;
 		
 	public EasyAI (QubicBoard board) {
 		this.board = board;
+		evaluator = new Evaluator(Weights.forAI("Easy"));
+		moves = new int[1];
+		values = new int[1];
 	}
 	
 	public Square go() {
-		QubicBoard tBoard = (QubicBoard)board.clone();
-		List<Square> openGrid = computeOpenGrid(tBoard.getGrid());
-		PriorityQueue<Possibility> moves = computePossibilities(openGrid);
-		System.out.println("There are " + moves.size() + " possible moves");
-		System.out.println(moves);
-		return moves.poll().s;
-	}
-	
-	private PriorityQueue<Possibility> computePossibilities(List<Square> openGrid) {
-		PriorityQueue<Possibility> moves = new PriorityQueue<Possibility>(); 
-		for (int i = 0; i < openGrid.size(); i++) {
-			Possibility p = new Possibility(openGrid.get(i));
-			
-			List<Row> tempRows = openGrid.get(i).containingRows();
-			for (int j = 0; j < tempRows.size(); j++) {
-				Row r = tempRows.get(j);
-				if (r.getState() == RowState.MIXED)
-					p.value -= 1;
-				else if (r.getNumSelected() == 3) {
-					if (r.getState() == RowState.COMPUTER) {
-						p.value += 50000;
-					} else if (r.getState() == RowState.HUMAN) {
-						p.value += 4000;
-					}
-				} else if (r.getNumSelected() == 2) {
-					if (r.getState() == RowState.COMPUTER) {
-						p.value += 10;
-					}
-				} else if (r.getNumSelected() == 1) {
-					if (r.getState() == RowState.COMPUTER) {
-						p.value += 2;
-					}
-				} else if (r.getNumSelected() == 0) {
-					p.value += 1;
-				}
-			}
-			//System.out.println(p.s);
-			moves.add(p);
-		}
-		return moves;
+		return go(board);
 	}
 	
 	/**
-	 * This computes every open square on the board.
-	 * @param grid The grid of Squares
-	 * @return grid List<Square>
+	 * Every open square counts as a position looked at, one move deep.
 	 */
-	private List<Square> computeOpenGrid(List<Square> grid) {
-		List<Square> openGrid = new ArrayList<Square>();
-		for (Square s: grid) {
-			if (s.getState() == null) {
-				openGrid.add(s);
-			}
-		}
-		return openGrid;
+	public Square go(QubicBoard position) {
+		long startTime = System.currentTimeMillis();
+		evaluator.reset(position);
+		evaluator.shuffleTies();
+		evaluator.order(Player.COMPUTER, moves, values, 1);
+		int open = Long.bitCount(evaluator.getOpenCells());
+		LOG.fine("There are " + open + " possible moves, " + position.getSquare(moves[0]) + " Priority " + values[0]);
+		lastResult = new SearchResult(position.getSquare(moves[0]), 1, open, System.currentTimeMillis() - startTime,
+				true, 1, 0, 0, 0);
+		return lastResult.getMove();
+	}
+	
+	public SearchResult getLastResult() {
+		return lastResult;
+	}
+	
+	public Weights getWeights() {
+		return evaluator.getWeights();
+	}
+	
+	public void setWeights(Weights weights) {
+		evaluator.setWeights(weights);
 	}
 	
 	public String toString() {
@@ -0,0 +1,269 @@
+package ai;
+
+import java.util.Random;
+
+import model.BitBoard;
+import model.QubicBoard;
+import model.QubicBoard.Player;
+
+/**
+ * Scores the open squares for the AIs, keeping the scores up to date as
+ * moves are made and taken back instead of rescanning every square and
+ * row at every position.  Every AI that ranks squares by their rows uses
+ * one of these.
+ *
+ * The score of a square for a player is the sum of the values of the rows
+ * through it, looked up in the Weights table by how many squares of the
+ * row each player holds.  A move only changes the rows through its square,
+ * so only the open squares of those rows are updated, by the difference
+ * in the row's value.  Nothing is allocated once the Evaluator is made.
+ *
+ * The Evaluator doesn't follow a board by itself: load the position with
+ * reset, then pass every make and undo on the board to make and unmake.
+ *
+ * Squares of equal score are put in an order drawn by shuffleTies from
+ * one generator shared by every Evaluator.  It is seeded from the
+ * qubic.seed system property when that is set, so games can be replayed.
+ * @author John Thomson
+ */
+public class Evaluator {
+	private static final Random RANDOM = Long.getLong("qubic.seed") != null
+			? new Random(Long.getLong("qubic.seed")) : new Random();
+
+	private Weights weights;
+	private int[] table;
+	private int[][] counts;
+	private int[][] scores;
+	private long open;
+	private int[] tiebreak;
+
+	/**
+	 * Constructs an Evaluator for the empty board.
+	 * @param weights The row weights to score with
+	 */
+	public Evaluator(Weights weights) {
+		this.weights = weights;
+		table = weights.getTable();
+		counts = new int[Player.values().length][BitBoard.LINE_COUNT];
+		scores = new int[Player.values().length][BitBoard.CELLS];
+		tiebreak = new int[BitBoard.CELLS];
+		for (int cell = 0; cell < BitBoard.CELLS; cell++)
+			tiebreak[cell] = cell;
+		reset(0, 0);
+	}
+
+	/**
+	 * Loads the position of the given board.
+	 * @param board
+	 */
+	public void reset(QubicBoard board) {
+		reset(new BitBoard(board));
+	}
+
+	/**
+	 * Loads the position of the given board.
+	 * @param b
+	 */
+	public void reset(BitBoard b) {
+		reset(b.getPieces(Player.HUMAN), b.getPieces(Player.COMPUTER));
+	}
+
+	private void reset(long human, long computer) {
+		open = ~(human | computer);
+		for (int line = 0; line < BitBoard.LINE_COUNT; line++) {
+			long mask = BitBoard.getLine(line);
+			counts[Player.HUMAN.ordinal()][line] = Long.bitCount(human & mask);
+			counts[Player.COMPUTER.ordinal()][line] = Long.bitCount(computer & mask);
+		}
+		rescore();
+	}
+
+	/**
+	 * Scores every square from the row counts.
+	 */
+	private void rescore() {
+		for (int p = 0; p < scores.length; p++) {
+			for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+				int value = 0;
+				int[] lines = BitBoard.getLinesThrough(cell);
+				for (int i = 0; i < lines.length; i++)
+					value += table[counts[p][lines[i]] * Weights.SIZE + counts[1 - p][lines[i]]];
+				scores[p][cell] = value;
+			}
+		}
+	}
+
+	/**
+	 * Switches to other row weights and rescores the current position.
+	 * @param weights
+	 */
+	public void setWeights(Weights weights) {
+		this.weights = weights;
+		table = weights.getTable();
+		rescore();
+	}
+
+	public Weights getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Draws a new random order for squares of equal score, so the AIs
+	 * don't play the same game every time.  Until the first shuffle they
+	 * come in cell order.
+	 */
+	public void shuffleTies() {
+		for (int i = BitBoard.CELLS - 1; i > 0; i--) {
+			int j = RANDOM.nextInt(i + 1);
+			int t = tiebreak[i];
+			tiebreak[i] = tiebreak[j];
+			tiebreak[j] = t;
+		}
+	}
+
+	/**
+	 * Reseeds the generator every Evaluator draws its tie orders from.
+	 * @param seed
+	 */
+	public static void setSeed(long seed) {
+		RANDOM.setSeed(seed);
+	}
+
+	/**
+	 * Records a move.  The cell must be open.
+	 * @param p The player moving
+	 * @param cell
+	 */
+	public void make(Player p, int cell) {
+		open &= ~(1L << cell);
+		update(p.ordinal(), cell, 1);
+	}
+
+	/**
+	 * Takes back a move made with make.  Moves must be taken back in the
+	 * reverse order they were made.
+	 * @param p The player that made the move
+	 * @param cell
+	 */
+	public void unmake(Player p, int cell) {
+		update(p.ordinal(), cell, -1);
+		open |= 1L << cell;
+	}
+
+	/**
+	 * Adds change to the mover's count in every row through the cell, and
+	 * passes the change in those rows' values on to their open squares.
+	 */
+	private void update(int mover, int cell, int change) {
+		int other = 1 - mover;
+		int[] lines = BitBoard.getLinesThrough(cell);
+		for (int i = 0; i < lines.length; i++) {
+			int line = lines[i];
+			int before = counts[mover][line];
+			int after = before + change;
+			int them = counts[other][line];
+			counts[mover][line] = after;
+			int moverChange = table[after * Weights.SIZE + them] - table[before * Weights.SIZE + them];
+			int otherChange = table[them * Weights.SIZE + after] - table[them * Weights.SIZE + before];
+			for (long cells = BitBoard.getLine(line) & open; cells != 0; cells &= cells - 1) {
+				int c = Long.numberOfTrailingZeros(cells);
+				scores[mover][c] += moverChange;
+				scores[other][c] += otherChange;
+			}
+		}
+	}
+
+	/**
+	 * Returns the score of an open square for the given player.
+	 * @param p
+	 * @param cell
+	 */
+	public int getScore(Player p, int cell) {
+		return scores[p.ordinal()][cell];
+	}
+
+	/**
+	 * Returns the scores of every square for the given player, indexed by
+	 * cell.  Only the open squares' scores mean anything.  The array is
+	 * shared and kept up to date, don't change it.
+	 * @param p
+	 */
+	public int[] getScores(Player p) {
+		return scores[p.ordinal()];
+	}
+
+	/**
+	 * Returns how many rows through the cell hold the given number of the
+	 * player's squares and none of the other player's.
+	 * @param p
+	 * @param cell
+	 * @param held
+	 */
+	public int countRows(Player p, int cell, int held) {
+		int[] mine = counts[p.ordinal()];
+		int[] theirs = counts[1 - p.ordinal()];
+		int[] lines = BitBoard.getLinesThrough(cell);
+		int rows = 0;
+		for (int i = 0; i < lines.length; i++) {
+			if (mine[lines[i]] == held && theirs[lines[i]] == 0)
+				rows++;
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns every open cell, as a bit set.
+	 */
+	public long getOpenCells() {
+		return open;
+	}
+
+	/**
+	 * Fills moves with the open cells, best first for the given player,
+	 * and scores with their scores.  Both arrays need room for every open
+	 * cell.
+	 * @return the number of moves
+	 */
+	public int order(Player p, int[] moves, int[] scores) {
+		return order(p, moves, scores, BitBoard.CELLS);
+	}
+
+	/**
+	 * Fills moves with the best limit open cells for the given player,
+	 * best first, and scores with their scores.  Only the cells that make
+	 * it into the first limit are sorted, the others are passed over
+	 * with a single comparison.
+	 * @return the number of moves, at most limit
+	 */
+	public int order(Player p, int[] moves, int[] scores, int limit) {
+		int[] value = this.scores[p.ordinal()];
+		int count = 0;
+		for (long cells = open; cells != 0; cells &= cells - 1) {
+			int cell = Long.numberOfTrailingZeros(cells);
+			int v = value[cell];
+			int i;
+			if (count < limit)
+				i = count++;
+			else if (better(v, cell, scores[limit - 1], moves[limit - 1]))
+				i = limit - 1;
+			else
+				continue;
+			// Insertion sort, best first.
+			while (i > 0 && better(v, cell, scores[i - 1], moves[i - 1])) {
+				scores[i] = scores[i - 1];
+				moves[i] = moves[i - 1];
+				i--;
+			}
+			scores[i] = v;
+			moves[i] = cell;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns true if the cell with score v goes before the other cell.
+	 */
+	private boolean better(int v, int cell, int otherValue, int otherCell) {
+		return v > otherValue || (v == otherValue && tiebreak[cell] < tiebreak[otherCell]);
+	}
+}
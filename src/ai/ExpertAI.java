@@ -1,17 +1,16 @@
 package ai;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.logging.Logger;
 
+import model.BitBoard;
 import model.QubicBoard;
-import model.Row;
 import model.Square;
 import model.QubicBoard.Player;
-import model.Row.RowState;
 
 
-public class ExpertAI implements QubicAI {
+public class ExpertAI implements AnytimeAI, WeightedAI {
+	private static final Logger LOG = Logger.getLogger(ExpertAI.class.getName());
 	//private ComputerMove computerGoesFirst;
 	//private PlayerMove playerGoesFirst;
 	private double maxPossibleMoves;
@@ -21,7 +20,6 @@ public class ExpertAI implements QubicAI {
 	private boolean factInit;
 	private double[] factorials;
 	
-	private static double count;
 	private QubicBoard qboard;
 	private Player aiPlayer = Player.COMPUTER;
 	private QubicAI backupAI;
@@ -29,27 +27,102 @@ public class ExpertAI implements QubicAI {
 	private double remaining;
 	private double completed;
 	private double prev_completed;
+	private int deepest;
+	private long nodes;
+	private long expanded;
+	private long cutoffs;
+	private long nodeLimit;
+	private long deadline;
+	private boolean aborted;
+	private Square bestMove;
+	
+	/**
+	 * What a search found: a forced win for the computer, that there is
+	 * none among the moves it tries, or nothing yet, when it ran out of
+	 * depth or budget.
+	 */
+	private enum Proof {WIN, REFUTED, NOT_PROVEN};
+	
+	//Move ordering: the two latest computer moves to win at each level (killers),
+	//and how much each square has won anywhere (history).  The human's replies
+	//stay in score order, every one of them is searched before a win counts.
+	private boolean useMoveOrdering = true;
+	private int[][] killers;
+	private int[] history;
+	private Evaluator evaluator;
+	private int[][] candidates;
+	private int[][] candidateValues;
+	private int[][] candidateRanks;
 		
 	//private Move root;
 	
 	public ExpertAI (QubicBoard board) {
 		this.qboard = board;
 		backupAI = new HardAI(board);
+		killers = new int[SEARCH_DEPTH_LIMIT + 1][2];
+		history = new int[BitBoard.CELLS];
+		evaluator = new Evaluator(Weights.forAI("Expert"));
+		//The human's levels try every reply.
+		candidates = new int[SEARCH_DEPTH_LIMIT + 1][BitBoard.CELLS];
+		candidateValues = new int[SEARCH_DEPTH_LIMIT + 1][BitBoard.CELLS];
+		candidateRanks = new int[SEARCH_DEPTH_LIMIT + 1][BitBoard.CELLS];
+	}
+	
+	/**
+	 * Turns the killer move and history ordering on or off. With it off the
+	 * moves are tried in plain score order, as a baseline for benchmarks.
+	 * @param on
+	 */
+	public void setMoveOrdering(boolean on) {
+		useMoveOrdering = on;
 	}
 	
 	public Square go() {
+		return go(qboard);
+	}
+	
+	public Square go(QubicBoard position) {
+		return go(position, SearchBudget.UNLIMITED).getMove();
+	}
+	
+	public SearchResult go(SearchBudget budget) {
+		return go(qboard, budget);
+	}
+	
+	/**
+	 * Runs the same search as go() until the budget runs out.  If it runs
+	 * out first, the HardAI's move is played, just as when the search
+	 * finds nothing.
+	 */
+	public SearchResult go(QubicBoard position, SearchBudget budget) {
 		startTime = System.currentTimeMillis();
-		count = 0;
-		QubicBoard tBoard = (QubicBoard)qboard.clone();
-		List<Square> openGrid = computeOpenGrid(tBoard.getGrid());
+		deadline = budget.getDeadline(startTime);
+		nodeLimit = budget.getNodeLimit();
+		nodes = 0;
+		deepest = 0;
+		aborted = false;
+		expanded = 0;
+		cutoffs = 0;
+		for (int[] k : killers)
+			Arrays.fill(k, -1);
+		Arrays.fill(history, 0);
+		QubicBoard tBoard = (QubicBoard)position.clone();
+		evaluator.reset(tBoard);
+		evaluator.shuffleTies();
 		
-		Square move = search(Player.HUMAN, tBoard, openGrid, 1);
-		if (move != null)
-			return move;
-		else {
-			System.out.println("Perfect recursive backtracking couldn't find a solution, reverting to dumbed down version.");
-			return backupAI.go();
+		bestMove = null;
+		Square move;
+		if (search(Player.HUMAN, tBoard, 1) == Proof.WIN) {
+			move = bestMove;
+		} else if (aborted) {
+			LOG.fine("Perfect recursive backtracking ran out of time, reverting to dumbed down version.");
+			move = backupAI.go(position);
+		} else {
+			LOG.fine("Perfect recursive backtracking couldn't find a solution, reverting to dumbed down version.");
+			move = backupAI.go(position);
 		}
+		return new SearchResult(move, deepest, nodes, System.currentTimeMillis() - startTime, !aborted,
+				expanded, cutoffs, 0, 0);
 	}
 	
 	/*public void computeStrategy () {
@@ -69,164 +142,200 @@ public class ExpertAI implements QubicAI {
 			System.out.println("No unbeatable strategy found, there must be a bug in your logic");
 	}*/
 	
-	public Square search(Player curPlayer, QubicBoard board, List<Square> openGrid, int level) {
+	/**
+	 * Tries to prove a forced win for the computer, the player to move at
+	 * odd levels.  The computer only looks at its SEARCH_SPACE_LIMIT best
+	 * moves, but a win is only claimed once every reply of the human's
+	 * has been beaten.  At level 1 the winning move is left in bestMove.
+	 * @param curPlayer The player who made the last move
+	 * @return WIN if the computer wins by force, REFUTED if it is shown
+	 * not to, NOT_PROVEN if the depth or the budget ran out first
+	 */
+	private Proof search(Player curPlayer, QubicBoard board, int level) {
 		//System.out.println(curPlayer + " " + level);
 		if (curPlayer == Player.COMPUTER) //CurPlayer was the player for the last move
 			//Changing to this move...
 			curPlayer = Player.HUMAN;
 		else 
 			curPlayer = Player.COMPUTER;
+		Player other = curPlayer == Player.COMPUTER ? Player.HUMAN : Player.COMPUTER;
+		
+		nodes++;
+		if ((nodes & 63) == 0 && (nodes >= nodeLimit || System.currentTimeMillis() > deadline
+				|| Thread.currentThread().isInterrupted()))
+			aborted = true;
+		if (aborted)
+			return Proof.NOT_PROVEN; //Out of budget, the caller throws this search away.
+		deepest = Math.max(deepest, level - 1);
 		
-		if (level >= SEARCH_DEPTH_LIMIT) {
-			//System.out.println("Maxed out at " + curPlayer);
-			return null; //Reached the max depth of the search.
-		}
-			
 		if (board.gameOver()) {
-			System.out.println("Error: endgame happened");
-			System.out.println(board);
-			return null;
+			//Only a full board gets here, the wins are taken before.
+			return Proof.REFUTED;
+		}
+		
+		//Wins and blocks are read off the rows, not the scores, which
+		//change with the weights.
+		long wins = threats(curPlayer);
+		if (wins != 0) {
+			if (curPlayer == Player.HUMAN)
+				return Proof.REFUTED;
+			//System.out.println("I have devised that in " + level + " moves, I will beat you.");
+			if (level == 1)
+				bestMove = board.getSquare(Long.numberOfTrailingZeros(wins));
+			return Proof.WIN;
 		}
+		long blocks = threats(other);
+		if (Long.bitCount(blocks) > 1)
+			return curPlayer == Player.COMPUTER ? Proof.REFUTED : Proof.WIN;
 		
-		PriorityQueue<Possibility> possibleMoves = computePossibilities(openGrid, curPlayer);
+		if (level >= SEARCH_DEPTH_LIMIT) {
+			//System.out.println("Maxed out at " + curPlayer);
+			return Proof.NOT_PROVEN; //Reached the max depth of the search.
+		}
 		
-		//Make a new Node
-		Square thisMove = null;
+		int[] moves = candidates[level];
+		int count;
+		boolean everyMove;
+		if (blocks != 0) {
+			//Anything but the block loses at once.
+			moves[0] = Long.numberOfTrailingZeros(blocks);
+			count = 1;
+			everyMove = true;
+		} else if (curPlayer == Player.COMPUTER) {
+			count = orderMoves(curPlayer, level, SEARCH_SPACE_LIMIT);
+			everyMove = count == Long.bitCount(evaluator.getOpenCells());
+		} else {
+			count = orderMoves(curPlayer, level, BitBoard.CELLS);
+			everyMove = true;
+		}
+		expanded++;
 
 		//Simulate a computer move.
 		if (curPlayer == Player.COMPUTER) {
-			boolean guarnanteedWin = false;
-			while (!possibleMoves.isEmpty()) {
-				Possibility p = possibleMoves.poll();
-				if (p.value >= 50000) {
-					//System.out.println("I have devised that in " + level + " moves, I will beat you.");
-					return p.s;
-				}
-				Square s = p.s;
-				thisMove = s;
-				
-				openGrid.remove(s);
+			boolean proven = everyMove;
+			for (int i = 0; i < count; i++) {
+				Square s = board.getSquare(moves[i]);
 				board.select(s);
+				evaluator.make(curPlayer, moves[i]);
 				
-				Square tempMove = search(curPlayer, board, openGrid, level + 1);//, remaining, completed);
+				Proof reply = search(curPlayer, board, level + 1);
 				
+				evaluator.unmake(curPlayer, moves[i]);
 				board.undo();
-				openGrid.add(s);
 				
-				if (tempMove == null) {
-					guarnanteedWin = true;
-					break;
+				if (reply == Proof.WIN) {
+					//Every reply of the human's is beaten.
+					recordCutoff(moves[i], level);
+					if (level == 1)
+						bestMove = s;
+					return Proof.WIN;
+				} else if (reply == Proof.NOT_PROVEN) {
+					proven = false;
 				}
 			}
-			if (guarnanteedWin) {
-				//System.out.println("Other diag");
-				//System.out.println("Endgame scenario detected @ move " + level);
-				return thisMove;
-			} else {
-				return null;
-			}
+			return proven ? Proof.REFUTED : Proof.NOT_PROVEN;
 		} else { ///Simulate a player move.
-			
-			boolean guaranteedWin = true;
-			while (!possibleMoves.isEmpty()) {
-				Possibility p = possibleMoves.poll();
-				if (p.value >= 50000) {
-					//System.out.println("Virtual Player win");
-					return null;
-				} //else if (p.value >= 4000) {
-					//return p.s;
-				//}
-				Square s = p.s;
-				thisMove = s;
-				
-				openGrid.remove(s);
+			for (int i = 0; i < count; i++) {
+				Square s = board.getSquare(moves[i]);
 				board.select(s);
+				evaluator.make(curPlayer, moves[i]);
 				
-				Square tempMove = search(curPlayer, board, openGrid, level + 1);
+				Proof reply = search(curPlayer, board, level + 1);
 				
+				evaluator.unmake(curPlayer, moves[i]);
 				board.undo();
-				openGrid.add(s);
 				
-				if (tempMove == null) {
-					guaranteedWin = false;
-					break;
+				if (reply == Proof.REFUTED) {
+					//System.out.println("Diag");
+					recordCutoff(moves[i], level);
+					return Proof.REFUTED;
+				} else if (reply == Proof.NOT_PROVEN) {
+					return Proof.NOT_PROVEN;
 				}
 			}
-			
-			if (guaranteedWin) {
-				return thisMove;
-			} else {
-				//System.out.println("Diag");
-				return null;
-			}
+			return Proof.WIN;
 		}
 	}
 	
-	private PriorityQueue<Possibility> computePossibilities(List<Square> openGrid, Player player) {
-		RowState thisPlayer;
-		RowState otherPlayer;
-		if (player == Player.COMPUTER){
-			thisPlayer = RowState.COMPUTER;
-			otherPlayer = RowState.HUMAN;
-		} else {
-			thisPlayer = RowState.HUMAN;
-			otherPlayer = RowState.COMPUTER;
+	/**
+	 * Returns the open cells that would complete a row for the player, as
+	 * a bit set.
+	 */
+	private long threats(Player player) {
+		long cells = 0;
+		for (long open = evaluator.getOpenCells(); open != 0; open &= open - 1) {
+			int cell = Long.numberOfTrailingZeros(open);
+			if (evaluator.countRows(player, cell, 3) > 0)
+				cells |= 1L << cell;
 		}
-		PriorityQueue<Possibility> moves = new PriorityQueue<Possibility>(); 
-		
-		int size = openGrid.size();
-		for (int i = 0; i < size; i++) {
-			Possibility p = new Possibility(openGrid.get(i));
-			
-			List<Row> tempRows = openGrid.get(i).containingRows();
-			for (int j = 0; j < tempRows.size(); j++) {
-				Row r = tempRows.get(j);
-				if (r.getState() == RowState.MIXED)
-					p.value -= 1;
-				else if (r.getNumSelected() == 3) {
-					if (r.getState() == thisPlayer) {
-						p.value += 50000;
-					} else if (r.getState() == otherPlayer) {
-						p.value += 4000;
-					}
-				} else if (r.getNumSelected() == 2) {
-					if (r.getState() == thisPlayer) {
-						p.value += 10;
-					}
-				} else if (r.getNumSelected() == 1) {
-					if (r.getState() == thisPlayer) {
-						p.value += 2;
-					}
-				} else if (r.getNumSelected() == 0) {
-					p.value += 1;
-				}
+		return cells;
+	}
+	
+	/**
+	 * Fills this level's candidate buffers with the best limit moves for
+	 * the player, in the order to try them: this level's killer moves
+	 * first, then the rest by history.  Moves that rank the same stay in
+	 * score order.  Wins and blocks never get here, search plays them
+	 * before ordering anything.
+	 * @return the number of candidates
+	 */
+	private int orderMoves(Player player, int level, int limit) {
+		int[] moves = candidates[level];
+		int[] values = candidateValues[level];
+		int count = evaluator.order(player, moves, values, limit);
+		if (!useMoveOrdering)
+			return count;
+		int[] ranks = candidateRanks[level];
+		for (int i = 0; i < count; i++) {
+			int cell = moves[i];
+			int value = values[i];
+			int rank = rank(cell, level);
+			// Insertion sort on rank, leaving equal ranks in score order.
+			int j = i;
+			while (j > 0 && ranks[j - 1] > rank) {
+				moves[j] = moves[j - 1];
+				values[j] = values[j - 1];
+				ranks[j] = ranks[j - 1];
+				j--;
 			}
-			//System.out.println(p.s);
-			moves.add(p);
+			moves[j] = cell;
+			values[j] = value;
+			ranks[j] = rank;
 		}
-		
-		PriorityQueue<Possibility> sortedQueue = new PriorityQueue<Possibility>();
-		
-		for (int i = 0; i < SEARCH_SPACE_LIMIT && !moves.isEmpty(); i++) {
-			sortedQueue.add(moves.poll());
-		}
-		return sortedQueue;
+		return count;
 	}
 	
+	/**
+	 * How early to try a move, lowest first: for the computer the two
+	 * killers, then the rest, the most used in wins first.  The human's
+	 * replies all rank the same.
+	 */
+	private int rank(int cell, int level) {
+		if (level % 2 == 0)
+			return 0;
+		if (cell == killers[level][0])
+			return Integer.MIN_VALUE;
+		if (cell == killers[level][1])
+			return Integer.MIN_VALUE + 1;
+		return -history[cell];
+	}
 	
 	/**
-	 * This computes every open square on the board.
-	 * @param grid The grid of Squares
-	 * @return grid List<Square>
+	 * Counts a move that settled the search at its level, a computer move
+	 * that wins or a human reply that refutes.  A winning computer move is
+	 * remembered as the newest killer there and in the history table,
+	 * weighted by how much search it saved.
 	 */
-	private List<Square> computeOpenGrid(List<Square> grid) {
-		List<Square> openGrid = new ArrayList<Square>();
-		for (Square s: grid) {
-			if (s.getState() == null) {
-				openGrid.add(s);
-			}
+	private void recordCutoff(int cell, int level) {
+		cutoffs++;
+		if (level % 2 == 0)
+			return;
+		if (killers[level][0] != cell) {
+			killers[level][1] = killers[level][0];
+			killers[level][0] = cell;
 		}
-		return openGrid;
+		int remaining = SEARCH_DEPTH_LIMIT - level;
+		history[cell] += remaining * remaining;
 	}
 	
 	public double factorial (int n) {
@@ -249,6 +358,14 @@ public class ExpertAI implements QubicAI {
 		}
 		return factorials[n];
 	}	
+	public Weights getWeights() {
+		return evaluator.getWeights();
+	}
+	
+	public void setWeights(Weights weights) {
+		evaluator.setWeights(weights);
+	}
+	
 	public String toString() {
 		return "Expert";
 	}
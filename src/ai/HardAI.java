@@ -1,134 +1,135 @@
 package ai;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.PriorityQueue;
+import java.util.logging.Logger;
 
+import model.BitBoard;
 import model.QubicBoard;
-import model.Row;
 import model.Square;
 import model.QubicBoard.Player;
-import model.Row.RowState;
 
-public class HardAI implements QubicAI {
+public class HardAI implements WeightedAI, MeasuredAI {
+	private static final Logger LOG = Logger.getLogger(HardAI.class.getName());
 
 	//private static double count;
 	private QubicBoard board;
 	private Player aiPlayer = Player.COMPUTER;
+	private Player opponent = Player.HUMAN;
 	private int winlevel;
+	private Evaluator evaluator;
+	//Candidate moves and their scores, one pair of buffers per level.
+	private int[][] candidates;
+	private int[][] candidateValues;
+	//How the last search went.
+	private long nodes;
+	private long expanded;
+	private long cutoffs;
+	private int deepest;
+	private SearchResult lastResult;
 	//private Move root;
 	
 	public HardAI (QubicBoard board) {
 		this.board = board;
+		evaluator = new Evaluator(Weights.forAI("Hard"));
+		//Every level takes two squares.
+		candidates = new int[BitBoard.CELLS / 2 + 2][BitBoard.CELLS];
+		candidateValues = new int[BitBoard.CELLS / 2 + 2][BitBoard.CELLS];
 	}
 	
 	public Square go() {
-		//count = 0;
-		QubicBoard tBoard = (QubicBoard)board.clone();
-		List<Square> openGrid = computeOpenGrid(tBoard.getGrid());
-		//PriorityQueue<Possibility> moves = new PriorityQueue<Possibility>(); 
-		Square tempMove = search(tBoard, openGrid, 1);
+		return go(board);
+	}
+	
+	public Square go(QubicBoard position) {
+		long startTime = System.currentTimeMillis();
+		nodes = 0;
+		expanded = 0;
+		cutoffs = 0;
+		deepest = 0;
+		QubicBoard tBoard = (QubicBoard)position.clone();
+		evaluator.reset(tBoard);
+		evaluator.shuffleTies();
+		Square tempMove = search(tBoard, 1);
 		if (tempMove != null) {
-			System.out.println("\nI will beat you in a maximum of " + winlevel + " moves!\n");
-			return tempMove;
+			LOG.fine("I will beat you in a maximum of " + winlevel + " moves!");
 		} else {
-			System.out.println("Hard recursion didn't work, using scoring method..");
-			PriorityQueue<Possibility> moves = computePossibilities(openGrid, aiPlayer);
-			System.out.println(moves);
-			return moves.poll().s;
+			LOG.fine("Hard recursion didn't work, using scoring method..");
+			int[] moves = candidates[0];
+			int[] values = candidateValues[0];
+			evaluator.order(aiPlayer, moves, values, 1);
+			LOG.fine(tBoard.getSquare(moves[0]) + " Priority " + values[0]);
+			tempMove = tBoard.getSquare(moves[0]);
 		}
+		lastResult = new SearchResult(tempMove, deepest, nodes, System.currentTimeMillis() - startTime, true,
+				expanded, cutoffs, 0, 0);
+		return tempMove;
+	}
+	
+	public SearchResult getLastResult() {
+		return lastResult;
 	}
 	
-	private Square search(QubicBoard tempBoard, List<Square> openGrid, int level) {
-		PriorityQueue<Possibility> moves = computePossibilities(openGrid, aiPlayer);
+	private Square search(QubicBoard tempBoard, int level) {
+		int[] moves = candidates[level];
+		int[] values = candidateValues[level];
+		int count = evaluator.order(aiPlayer, moves, values);
+		nodes++;
+		//Every level is a move and its forced reply.
+		deepest = Math.max(deepest, 2 * (level - 1));
 		
-		if (moves.peek().value >= 4000) {
-			return moves.poll().s;
+		//Wins and blocks are read off the rows, not the scores, which
+		//change with the weights.
+		int block = -1;
+		for (int i = 0; i < count; i++) {
+			if (evaluator.countRows(aiPlayer, moves[i], 3) > 0)
+				return tempBoard.getSquare(moves[i]);
+			if (block < 0 && evaluator.countRows(opponent, moves[i], 3) > 0)
+				block = moves[i];
+		}
+		
+		if (count == 0) {
+			return null;
+		} else if (block >= 0) {
+			//The opponent's reply made a row of its own, so the forcing
+			//ends here; on the board itself the row has to be blocked.
+			return level == 1 ? tempBoard.getSquare(block) : null;
 		} else {
-			while (!moves.isEmpty()) {
-				Possibility tempMove = moves.poll();
-				if (tempMove.value >= 20) {
-					openGrid.remove(tempMove.s);
-					tempBoard.select(tempMove.s);
-					Square opponentMove = tempMove.s.getOtherSquare();
-					//if (opponentMove == null)
-						//throw new RuntimeException("AI picked the wrong row!");
-					Square nextMove = null;
-					if (opponentMove != null) { //This shouldn't be necessary...
-						openGrid.remove(opponentMove);
-						tempBoard.select(opponentMove);
-						winlevel = level + 1;
-						nextMove = search(tempBoard, openGrid, level +1);
-						openGrid.add(opponentMove);
-						tempBoard.undo();
-					}
-					openGrid.add(tempMove.s);
+			expanded++;
+			//Only moves that make three in a row force a reply.
+			for (int i = 0; i < count; i++) {
+				if (evaluator.countRows(aiPlayer, moves[i], 2) == 0)
+					continue;
+				Square tempMove = tempBoard.getSquare(moves[i]);
+				tempBoard.select(tempMove);
+				evaluator.make(aiPlayer, moves[i]);
+				Square opponentMove = tempMove.getOtherSquare();
+				//if (opponentMove == null)
+					//throw new RuntimeException("AI picked the wrong row!");
+				Square nextMove = null;
+				if (opponentMove != null) { //This shouldn't be necessary...
+					tempBoard.select(opponentMove);
+					evaluator.make(opponent, opponentMove.getIndex());
+					winlevel = level + 1;
+					nextMove = search(tempBoard, level +1);
+					evaluator.unmake(opponent, opponentMove.getIndex());
 					tempBoard.undo();
-					if (nextMove != null)
-						return tempMove.s;
+				}
+				evaluator.unmake(aiPlayer, moves[i]);
+				tempBoard.undo();
+				if (nextMove != null) {
+					cutoffs++;
+					return tempMove;
 				}
 			}
 			return null;
 		}
 	}
 	
-	private PriorityQueue<Possibility> computePossibilities(List<Square> openGrid, Player player) {
-		RowState thisPlayer;
-		RowState otherPlayer;
-		if (player == Player.COMPUTER){
-			thisPlayer = RowState.COMPUTER;
-			otherPlayer = RowState.HUMAN;
-		} else {
-			thisPlayer = RowState.HUMAN;
-			otherPlayer = RowState.COMPUTER;
-		}
-		PriorityQueue<Possibility> moves = new PriorityQueue<Possibility>(); 
-		for (int i = 0; i < openGrid.size(); i++) {
-			Possibility p = new Possibility(openGrid.get(i));
-			
-			List<Row> tempRows = openGrid.get(i).containingRows();
-			for (int j = 0; j < tempRows.size(); j++) {
-				Row r = tempRows.get(j);
-				if (r.getState() == RowState.MIXED)
-					p.value -= 1;
-				else if (r.getNumSelected() == 3) {
-					if (r.getState() == thisPlayer) {
-						p.value += 50000;
-					} else if (r.getState() == otherPlayer) {
-						p.value += 4000;
-					}
-				} else if (r.getNumSelected() == 2) {
-					if (r.getState() == thisPlayer) {
-						p.value += 20;
-					}
-				} else if (r.getNumSelected() == 1) {
-					if (r.getState() == thisPlayer) {
-						p.value += 2;
-					}
-				} else if (r.getNumSelected() == 0) {
-					p.value += 1;
-				}
-			}
-			//System.out.println(p.s);
-			moves.add(p);
-		}
-		return moves;
+	public Weights getWeights() {
+		return evaluator.getWeights();
 	}
 	
-		
-	/**
-	 * This computes every open square on the board.
-	 * @param grid The grid of Squares
-	 * @return grid List<Square>
-	 */
-	private List<Square> computeOpenGrid(List<Square> grid) {
-		List<Square> openGrid = new ArrayList<Square>();
-		for (Square s: grid) {
-			if (s.getState() == null) {
-				openGrid.add(s);
-			}
-		}
-		return openGrid;
+	public void setWeights(Weights weights) {
+		evaluator.setWeights(weights);
 	}
 	
 	public String toString() {
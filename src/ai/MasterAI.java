@@ -0,0 +1,613 @@
+package ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import model.BitBoard;
+import model.QubicBoard;
+import model.Square;
+import model.QubicBoard.Player;
+
+/**
+ * The strongest of the searching AIs.  It runs a negamax search with
+ * alpha-beta pruning on a BitBoard, deepening one move at a time until
+ * its time runs out, and plays the best move of the deepest search that
+ * finished.  Unlike ExpertAI it scores every position, so it always has
+ * a move ready, even when it can't prove a win.
+ *
+ * Moves are tried in the order an Evaluator with ExpertAI's weights
+ * puts them, with the best move of the previous
+ * search first at the root.  When the player to move has to block a
+ * row, that block is the only move tried and it doesn't count against
+ * the depth.
+ *
+ * Results are kept in a TranspositionTable, so a position reached by
+ * different move orders is only searched once, and its best move is
+ * tried first when it comes up again.  The table's size comes from the
+ * qubic.hashMegabytes system property (32 MB by default).
+ *
+ * The search can run on several threads (Lazy SMP): every thread runs
+ * the same iterative deepening on its own BitBoard, and they share only
+ * the table, so each one profits from what the others have already
+ * searched.  Half of the helper threads start one move deeper to spread
+ * them out.  The main thread's result is played.  The thread count
+ * comes from the qubic.threads system property, by default the number
+ * of processors.
+ *
+ * Before searching, ThreatSearch is asked for a forced win, and for the
+ * moves that don't hand the opponent one; only those are searched.
+ *
+ * While the opponent thinks, the AI can ponder: it takes the reply its
+ * own search expected (the best move the table holds for the position)
+ * and searches the position after it on one background thread.  If the
+ * opponent plays that move, the pondering counts towards the next
+ * move's budget and its table entries make the search start deep;
+ * otherwise it is stopped and forgotten.
+ * @author John Thomson
+ */
+public class MasterAI implements PonderingAI {
+	private static final Logger LOG = Logger.getLogger(MasterAI.class.getName());
+	private static final long DEFAULT_TIME_LIMIT = 2000;
+	private static final int MAX_PLY = BitBoard.CELLS + 1;
+	/** The score of a win on the next move, wins further off score less. */
+	static final int WIN = 1000000;
+	private static final int INFINITY = WIN + 1;
+	/** Positional value of a row holding 0 to 3 pieces of one player only. */
+	private static final int[] LINE_VALUES = {0, 1, 8, 64, 0};
+	private static final int DEFAULT_TABLE_SIZE = Integer.getInteger("qubic.hashMegabytes", 32);
+	private static final int DEFAULT_THREADS =
+			Integer.getInteger("qubic.threads", Runtime.getRuntime().availableProcessors());
+
+	private QubicBoard board;
+	private long timeLimit;
+	private int threads;
+	private int depthLimit;
+	private TranspositionTable table;
+	private ExecutorService helpers;
+	private ExecutorService ponderThread;
+	private Future<?> pondering;
+	private Searcher ponderSearcher;
+	private long ponderKey;
+	private long ponderStart;
+	private volatile boolean stopped;
+	private long deadline;
+	private long nodeLimit;
+	private long lastNodes;
+	private int lastDepth;
+
+	public MasterAI(QubicBoard board) {
+		this(board, DEFAULT_TIME_LIMIT);
+	}
+
+	/**
+	 * Constructs a MasterAI that searches for the given time per move.
+	 * @param board
+	 * @param timeLimit in milliseconds
+	 */
+	public MasterAI(QubicBoard board, long timeLimit) {
+		this(board, timeLimit, null, DEFAULT_THREADS);
+	}
+
+	/**
+	 * Constructs a MasterAI that searches for the given time per move on
+	 * the given number of threads, and keeps its results in the given table.
+	 * @param board
+	 * @param timeLimit in milliseconds
+	 * @param table The table to use, or null to make one of the default
+	 * size the first time the AI moves
+	 * @param threads How many threads to search on, at least 1
+	 */
+	public MasterAI(QubicBoard board, long timeLimit, TranspositionTable table, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("A search needs at least one thread");
+		this.board = board;
+		this.timeLimit = timeLimit;
+		this.table = table;
+		this.threads = threads;
+		depthLimit = BitBoard.CELLS;
+	}
+
+	/**
+	 * Stops the search once it has finished the given depth, even if
+	 * there is time left.  Used for benchmarks.
+	 * @param depthLimit
+	 */
+	public void setDepthLimit(int depthLimit) {
+		this.depthLimit = depthLimit;
+	}
+
+	/**
+	 * Returns how long go() searches for, in milliseconds.
+	 */
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	/**
+	 * Returns the number of positions all threads searched for the last move.
+	 */
+	public long getLastNodes() {
+		return lastNodes;
+	}
+
+	/**
+	 * Returns the depth of the deepest finished search for the last move.
+	 */
+	public int getLastDepth() {
+		return lastDepth;
+	}
+
+	/**
+	 * Stops the helper threads.  The AI can still be used afterwards,
+	 * it will start new ones.
+	 */
+	public void shutdown() {
+		stopPondering();
+		if (helpers != null) {
+			helpers.shutdownNow();
+			helpers = null;
+		}
+		if (ponderThread != null) {
+			ponderThread.shutdownNow();
+			ponderThread = null;
+		}
+	}
+
+	public synchronized void startPondering() {
+		stopPondering();
+		if (table == null)
+			return; // Nothing searched yet, so there is no expected reply.
+		final BitBoard b = new BitBoard(board);
+		long open = b.getOpenCells();
+		if (open == 0 || b.gameOver())
+			return;
+		int reply = TranspositionTable.move(table.probe(b.getKey()));
+		if (reply == TranspositionTable.NO_MOVE || (open & (1L << reply)) == 0) {
+			Evaluator evaluator = new Evaluator(Weights.EXPERT);
+			evaluator.reset(b);
+			int[] moves = new int[BitBoard.CELLS];
+			evaluator.order(b.getCurrentPlayer(), moves, new int[BitBoard.CELLS]);
+			reply = moves[0];
+		}
+		if (b.isWinningMove(b.getCurrentPlayer(), reply))
+			return;
+		b.make(reply);
+		Player me = b.getCurrentPlayer();
+		if ((b.getWinningCells(me) & b.getOpenCells()) != 0
+				|| (b.getWinningCells(b.getOpponent(me)) & b.getOpenCells()) != 0)
+			return; // The next move is forced, go() finds it at once.
+
+		deadline = Long.MAX_VALUE;
+		nodeLimit = Long.MAX_VALUE;
+		stopped = false;
+		ponderKey = b.getKey();
+		ponderStart = System.currentTimeMillis();
+		if (ponderThread == null)
+			ponderThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MasterAI ponder");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		pondering = ponderThread.submit(new Runnable() {
+			public void run() {
+				long safe = ThreatSearch.findDefences(b, ThreatSearch.DEFAULT_DEPTH);
+				Searcher searcher = new Searcher(b, safe == 0 ? b.getOpenCells() : safe, 1);
+				ponderSearcher = searcher;
+				searcher.iterate();
+			}
+		});
+	}
+
+	public synchronized void stopPondering() {
+		finishPondering();
+		ponderSearcher = null;
+	}
+
+	/**
+	 * Stops the background search and waits for it.
+	 * @return how long it ran, in milliseconds, or -1 if there was none
+	 */
+	private synchronized long finishPondering() {
+		if (pondering == null)
+			return -1;
+		stopped = true;
+		boolean interrupted = false;
+		// Wait even when interrupted, the search must be over before the
+		// next one resets the stop flag.  It stops within a few thousand
+		// positions.
+		while (true) {
+			try {
+				pondering.get();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		pondering = null;
+		return System.currentTimeMillis() - ponderStart;
+	}
+
+	public Square go() {
+		return go(board);
+	}
+
+	public Square go(QubicBoard position) {
+		return go(position, SearchBudget.time(timeLimit)).getMove();
+	}
+
+	public SearchResult go(SearchBudget budget) {
+		return go(board, budget);
+	}
+
+	/**
+	 * Searches within the given budget instead of the AI's own time limit.
+	 * A node limit is shared out evenly between the threads.
+	 */
+	public SearchResult go(QubicBoard position, SearchBudget budget) {
+		// Making the table takes a while, it comes out of the budget.
+		long startTime = System.currentTimeMillis();
+		if (table == null)
+			table = new TranspositionTable(DEFAULT_TABLE_SIZE);
+		BitBoard b = new BitBoard(position);
+		// stopPondering can clear the field from the event thread at any
+		// time, so it is read once, under the lock.
+		Searcher pondered;
+		long ponderTime;
+		long ponderedKey;
+		synchronized (this) {
+			ponderTime = finishPondering();
+			pondered = ponderSearcher;
+			ponderedKey = ponderKey;
+			ponderSearcher = null;
+		}
+		if (pondered != null && (ponderedKey != b.getKey() || pondered.completedDepth == 0))
+			pondered = null;
+		if (pondered != null) {
+			LOG.fine("Master pondered the right move for " + ponderTime + " ms, "
+					+ pondered.completedDepth + " moves deep");
+			budget = SearchBudget.of(Math.max(0, budget.getTimeLimit() - ponderTime),
+					Math.max(0, budget.getNodeLimit() - pondered.nodes));
+		}
+		deadline = budget.getDeadline(startTime);
+		nodeLimit = budget.getNodeLimit() / threads;
+		stopped = false;
+		lastNodes = 0;
+		lastDepth = 0;
+
+		Player me = b.getCurrentPlayer();
+		long open = b.getOpenCells();
+		long wins = b.getWinningCells(me) & open;
+		if (wins != 0)
+			return shortcut(position, Long.numberOfTrailingZeros(wins), startTime);
+		long blocks = b.getWinningCells(b.getOpponent(me)) & open;
+		if (blocks != 0)
+			return shortcut(position, Long.numberOfTrailingZeros(blocks), startTime);
+		int threatWin = ThreatSearch.findWin(b, ThreatSearch.DEFAULT_DEPTH);
+		if (threatWin >= 0) {
+			LOG.fine("Master found a forced win by threats.");
+			return shortcut(position, threatWin, startTime);
+		}
+		if (pondered != null && (budget.getTimeLimit() == 0 || budget.getNodeLimit() == 0)) {
+			// The pondering used up the whole budget.
+			lastDepth = pondered.completedDepth;
+			lastNodes = pondered.nodes;
+			return new SearchResult(position.getSquare(pondered.bestMove), lastDepth, lastNodes,
+					System.currentTimeMillis() - startTime, false, pondered.expanded, pondered.cutoffs,
+					pondered.probes, pondered.hits);
+		}
+		long safe = ThreatSearch.findDefences(b, ThreatSearch.DEFAULT_DEPTH);
+		if (safe == 0)
+			safe = open; // Lost against best play, so just search on.
+
+		List<Future<?>> running = new ArrayList<Future<?>>();
+		List<Searcher> searchers = new ArrayList<Searcher>();
+		if (threads > 1 && helpers == null)
+			helpers = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MasterAI helper");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		for (int i = 1; i < threads; i++) {
+			final Searcher helper = new Searcher((BitBoard) b.clone(), safe, 1 + i % 2);
+			searchers.add(helper);
+			running.add(helpers.submit(new Runnable() {
+				public void run() {
+					helper.iterate();
+				}
+			}));
+		}
+		Searcher main = new Searcher(b, safe, 1);
+		searchers.add(main);
+		main.iterate();
+		stopped = true;
+		// Wait for the helpers even when cancelled, the next search resets
+		// the stop flag they check.  They stop within a few positions.
+		boolean interrupted = false;
+		for (Future<?> f : running) {
+			while (true) {
+				try {
+					f.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		if (pondered != null)
+			searchers.add(pondered);
+		long expanded = 0;
+		long cutoffs = 0;
+		long probes = 0;
+		long hits = 0;
+		for (Searcher searcher : searchers) {
+			lastNodes += searcher.nodes;
+			expanded += searcher.expanded;
+			cutoffs += searcher.cutoffs;
+			probes += searcher.probes;
+			hits += searcher.hits;
+		}
+		lastDepth = main.completedDepth;
+		int bestMove = main.bestMove;
+		if (pondered != null && pondered.completedDepth > lastDepth) {
+			lastDepth = pondered.completedDepth;
+			bestMove = pondered.bestMove;
+		}
+		long time = System.currentTimeMillis() - startTime;
+		LOG.fine("Master searched " + lastDepth + " moves deep, " + lastNodes
+				+ " positions in " + time + " ms on " + threads + " threads");
+		return new SearchResult(position.getSquare(bestMove), lastDepth, lastNodes, time, !main.aborted, expanded,
+				cutoffs, probes, hits);
+	}
+
+	/**
+	 * The result for a move found without searching: a win, a forced
+	 * block or a win by threats.
+	 */
+	private SearchResult shortcut(QubicBoard position, int cell, long startTime) {
+		return new SearchResult(position.getSquare(cell), 0, 0, System.currentTimeMillis() - startTime, true);
+	}
+
+	/**
+	 * One thread's share of the search, with its own board and buffers.
+	 */
+	private class Searcher {
+		private BitBoard b;
+		private Evaluator evaluator;
+		private long rootMoves;
+		private int startDepth;
+		private long nodes;
+		private long expanded;
+		private long cutoffs;
+		private long probes;
+		private long hits;
+		private boolean aborted;
+		private int[][] moveBuffers;
+		private int[][] scoreBuffers;
+		private int bestMove;
+		private int completedDepth;
+
+		Searcher(BitBoard b, long rootMoves, int startDepth) {
+			this.b = b;
+			evaluator = new Evaluator(Weights.EXPERT);
+			evaluator.reset(b);
+			this.rootMoves = rootMoves;
+			this.startDepth = startDepth;
+			moveBuffers = new int[MAX_PLY][BitBoard.CELLS];
+			scoreBuffers = new int[MAX_PLY][BitBoard.CELLS];
+		}
+
+		/**
+		 * Searches one move deeper at a time until time runs out, the
+		 * result is proven or another thread stops the search.
+		 */
+		void iterate() {
+			int[] moves = moveBuffers[0];
+			int count = 0;
+			Player me = b.getCurrentPlayer();
+			int all = evaluator.order(me, moves, scoreBuffers[0]);
+			for (int i = 0; i < all; i++) {
+				if ((rootMoves & (1L << moves[i])) != 0)
+					moves[count++] = moves[i];
+			}
+			bestMove = moves[0];
+			int maxDepth = Math.min(depthLimit, BitBoard.CELLS - b.getMoveCount());
+			for (int depth = startDepth; depth <= maxDepth; depth++) {
+				int alpha = -INFINITY;
+				int iterationBest = -1;
+				for (int i = 0; i < count; i++) {
+					make(me, moves[i]);
+					int score = -negamax(depth - 1, 1, -INFINITY, -alpha);
+					unmake(me, moves[i]);
+					if (aborted)
+						break;
+					if (score > alpha) {
+						alpha = score;
+						iterationBest = i;
+					}
+				}
+				if (aborted)
+					break;
+				bestMove = moves[iterationBest];
+				completedDepth = depth;
+				// Try the best move first in the next, deeper search.
+				System.arraycopy(moves, 0, moves, 1, iterationBest);
+				moves[0] = bestMove;
+				if (alpha >= WIN - MAX_PLY || alpha <= -(WIN - MAX_PLY))
+					break; // The result is proven, searching deeper won't change it.
+			}
+		}
+
+		/**
+		 * Scores the position for the player to move, searching depth more
+		 * moves.
+		 * @return the score, WIN - ply for a win found at ply, negated for a
+		 * loss, otherwise the evaluation of the position
+		 */
+		private int negamax(int depth, int ply, int alpha, int beta) {
+			nodes++;
+			if ((nodes & 1023) == 0 && (stopped || nodes >= nodeLimit || System.currentTimeMillis() > deadline
+					|| Thread.currentThread().isInterrupted()))
+				aborted = true;
+			if (aborted)
+				return 0;
+
+			long open = b.getOpenCells();
+			if (open == 0)
+				return 0; // Cat's game.
+			Player me = b.getCurrentPlayer();
+			if ((b.getWinningCells(me) & open) != 0)
+				return WIN - ply;
+			long blocks = b.getWinningCells(b.getOpponent(me)) & open;
+			if (Long.bitCount(blocks) > 1)
+				return -(WIN - ply - 1);
+
+			int[] moves = moveBuffers[ply];
+			int count;
+			if (blocks != 0) {
+				moves[0] = Long.numberOfTrailingZeros(blocks);
+				count = 1;
+				depth++; // A forced block is free.
+			} else if (depth <= 0) {
+				return evaluate(b, me);
+			} else {
+				count = 0;
+			}
+
+			long key = b.getKey();
+			long entry = table.probe(key);
+			probes++;
+			int tableMove = TranspositionTable.NO_MOVE;
+			if (entry != TranspositionTable.MISS) {
+				hits++;
+				tableMove = TranspositionTable.move(entry);
+				if (TranspositionTable.depth(entry) >= depth) {
+					int score = fromTable(TranspositionTable.score(entry), ply);
+					int bound = TranspositionTable.bound(entry);
+					if (bound == TranspositionTable.EXACT
+							|| (bound == TranspositionTable.LOWER && score >= beta)
+							|| (bound == TranspositionTable.UPPER && score <= alpha))
+						return score;
+				}
+			}
+
+			if (count == 0) {
+				count = evaluator.order(me, moves, scoreBuffers[ply]);
+				for (int i = 1; i < count; i++) {
+					if (moves[i] == tableMove) {
+						System.arraycopy(moves, 0, moves, 1, i);
+						moves[0] = tableMove;
+						break;
+					}
+				}
+			}
+
+			expanded++;
+			int originalAlpha = alpha;
+			int best = -INFINITY;
+			int bestMove = TranspositionTable.NO_MOVE;
+			for (int i = 0; i < count; i++) {
+				make(me, moves[i]);
+				int score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+				unmake(me, moves[i]);
+				if (aborted)
+					return 0;
+				if (score > best) {
+					best = score;
+					bestMove = moves[i];
+					if (score > alpha) {
+						alpha = score;
+						if (alpha >= beta) {
+							cutoffs++;
+							break;
+						}
+					}
+				}
+			}
+
+			int bound;
+			if (best <= originalAlpha)
+				bound = TranspositionTable.UPPER;
+			else if (best >= beta)
+				bound = TranspositionTable.LOWER;
+			else
+				bound = TranspositionTable.EXACT;
+			table.store(key, depth, bound, toTable(best, ply), bestMove);
+			return best;
+		}
+
+		private void make(Player me, int cell) {
+			b.make(cell);
+			evaluator.make(me, cell);
+		}
+
+		private void unmake(Player me, int cell) {
+			evaluator.unmake(me, cell);
+			b.unmake();
+		}
+	}
+
+	/**
+	 * Win and loss scores count plies from the root, but the table is
+	 * shared between searches from different roots, so they are stored
+	 * counting from the position itself.
+	 */
+	private static int toTable(int score, int ply) {
+		if (score >= WIN - MAX_PLY)
+			return score + ply;
+		else if (score <= -(WIN - MAX_PLY))
+			return score - ply;
+		return score;
+	}
+
+	private static int fromTable(int score, int ply) {
+		if (score >= WIN - MAX_PLY)
+			return score - ply;
+		else if (score <= -(WIN - MAX_PLY))
+			return score + ply;
+		return score;
+	}
+
+	/**
+	 * Static evaluation of a quiet position, from the view of the given
+	 * player: rows only one player has pieces in count for that player,
+	 * more so the more pieces they hold.
+	 */
+	private static int evaluate(BitBoard b, Player me) {
+		long mine = b.getPieces(me);
+		long theirs = b.getPieces(b.getOpponent(me));
+		int score = 0;
+		for (int i = 0; i < BitBoard.LINE_COUNT; i++) {
+			long mask = BitBoard.getLine(i);
+			long m = mine & mask;
+			long t = theirs & mask;
+			if (t == 0)
+				score += LINE_VALUES[Long.bitCount(m)];
+			else if (m == 0)
+				score -= LINE_VALUES[Long.bitCount(t)];
+		}
+		return score;
+	}
+
+	public String toString() {
+		return "Master";
+	}
+}
@@ -0,0 +1,15 @@
+package ai;
+
+/**
+ * An AI that can't be given a budget but still keeps count of the search
+ * behind its last move, so SearchMonitor can report on it as it does on
+ * the AnytimeAIs.
+ * @author John Thomson
+ */
+public interface MeasuredAI extends QubicAI {
+	/**
+	 * Returns what the last call to go() found and how much searching went
+	 * into it, or null before the first move.
+	 */
+	public SearchResult getLastResult();
+}
@@ -0,0 +1,461 @@
+package ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import model.BitBoard;
+import model.QubicBoard;
+import model.Square;
+import model.QubicBoard.Player;
+
+/**
+ * An AI based on Monte Carlo tree search.  Rather than scoring positions
+ * by hand, it plays many quick random games (playouts) and grows a tree
+ * of the moves that did best in them, choosing which move to try next
+ * with the UCT formula: the move's share of wins plus a bonus for moves
+ * that have been tried less.  The move tried most often is played.
+ *
+ * Playouts are random except that a player always completes a row of
+ * three and always blocks one, which makes them a lot more like real
+ * games for almost no cost.  In the tree, a player who can block has
+ * only the block to choose from.
+ *
+ * Several threads search the same tree.  Choosing a path and adding to
+ * the tree happen under a lock, playouts run outside it, and every node
+ * on a path counts as a loss until its playout comes back, so the
+ * threads spread out over different moves.
+ *
+ * The tree lives in a preallocated arena of parallel arrays, so growing
+ * it creates no garbage.  When the game moves on, the subtree of the new
+ * position is kept for the next search, and once the arena is half full
+ * that subtree is compacted to its front, freeing the rest.  The arena's
+ * size comes from the qubic.mctsNodes system property (one million nodes
+ * by default), the number of playouts per move from qubic.playouts.
+ * @author John Thomson
+ */
+public class MonteCarloAI implements AnytimeAI {
+	private static final Logger LOG = Logger.getLogger(MonteCarloAI.class.getName());
+	private static final long DEFAULT_TIME_LIMIT = 2000;
+	private static final long DEFAULT_PLAYOUTS = Long.getLong("qubic.playouts", 1000000);
+	private static final int DEFAULT_NODES = Integer.getInteger("qubic.mctsNodes", 1 << 20);
+	private static final int DEFAULT_THREADS =
+			Integer.getInteger("qubic.threads", Runtime.getRuntime().availableProcessors());
+	private static final double EXPLORATION = 1.0;
+	private static final int MAX_PLY = BitBoard.CELLS + 1;
+	private static final int UNEXPANDED = -1;
+
+	private QubicBoard board;
+	private long timeLimit;
+	private long playoutLimit;
+	private int capacity;
+	private int threads;
+	private ExecutorService helpers;
+
+	// The arena: node n's children are the childCount[n] nodes from
+	// firstChild[n] on.  score counts 2 for a win and 1 for a draw, for
+	// the player who made the node's move.
+	private int[] firstChild;
+	private byte[] childCount;
+	private byte[] move;
+	private int[] visits;
+	private long[] score;
+	private int nextFree;
+	private int root;
+	private BitBoard rootBoard;
+	// Scratch space for compacting the arena.
+	private int[] forward;
+	private long[] kept;
+
+	private volatile boolean stopped;
+	private long deadline;
+	private long playouts;
+	private int deepest;
+	private long expanded;
+	private long cutoffs;
+
+	public MonteCarloAI(QubicBoard board) {
+		this(board, DEFAULT_TIME_LIMIT, DEFAULT_PLAYOUTS, DEFAULT_NODES, DEFAULT_THREADS);
+	}
+
+	/**
+	 * Constructs a MonteCarloAI that stops at whichever per move limit it
+	 * reaches first.
+	 * @param board
+	 * @param timeLimit in milliseconds
+	 * @param playoutLimit The most playouts per move
+	 * @param capacity How many tree nodes the arena holds
+	 * @param threads How many threads to search on, at least 1
+	 */
+	public MonteCarloAI(QubicBoard board, long timeLimit, long playoutLimit, int capacity, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("A search needs at least one thread");
+		if (capacity < BitBoard.CELLS + 1)
+			throw new IllegalArgumentException("The tree needs room for at least " + (BitBoard.CELLS + 1) + " nodes");
+		this.board = board;
+		this.timeLimit = timeLimit;
+		this.playoutLimit = playoutLimit;
+		this.capacity = capacity;
+		this.threads = threads;
+	}
+
+	/**
+	 * Stops the helper threads.  The AI can still be used afterwards,
+	 * it will start new ones.
+	 */
+	public void shutdown() {
+		if (helpers != null) {
+			helpers.shutdownNow();
+			helpers = null;
+		}
+	}
+
+	public Square go() {
+		return go(board);
+	}
+
+	public Square go(QubicBoard position) {
+		return go(position, SearchBudget.of(timeLimit, playoutLimit)).getMove();
+	}
+
+	public SearchResult go(SearchBudget budget) {
+		return go(board, budget);
+	}
+
+	/**
+	 * Searches within the given budget, where the node limit counts
+	 * playouts.
+	 */
+	public SearchResult go(QubicBoard position, SearchBudget budget) {
+		long startTime = System.currentTimeMillis();
+		BitBoard b = new BitBoard(position);
+		Player me = b.getCurrentPlayer();
+		long open = b.getOpenCells();
+		long wins = b.getWinningCells(me) & open;
+		if (wins != 0)
+			return new SearchResult(position.getSquare(Long.numberOfTrailingZeros(wins)), 0, 0,
+					System.currentTimeMillis() - startTime, true, 0, 0, 0, 0);
+
+		int reused = reuseTree(b);
+		deadline = budget.getDeadline(startTime);
+		final long limit = budget.getNodeLimit();
+		stopped = false;
+		playouts = 0;
+		deepest = 0;
+		expanded = 0;
+		cutoffs = 0;
+		expand(root, b);
+
+		List<Future<?>> running = new ArrayList<Future<?>>();
+		if (threads > 1 && helpers == null)
+			helpers = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MonteCarloAI helper");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		long seed = System.nanoTime();
+		for (int i = 1; i < threads; i++) {
+			final BitBoard copy = (BitBoard) b.clone();
+			final Random random = new Random(seed + i);
+			running.add(helpers.submit(new Runnable() {
+				public void run() {
+					search(copy, random, limit);
+				}
+			}));
+		}
+		search((BitBoard) b.clone(), new Random(seed), limit);
+		stopped = true;
+		// Wait for the helpers even when cancelled, the next search resets
+		// the stop flag they check.  They stop within a few positions.
+		boolean interrupted = false;
+		for (Future<?> f : running) {
+			while (true) {
+				try {
+					f.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		long time = System.currentTimeMillis() - startTime;
+		if (childCount[root] == 0) {
+			// Two rows to block, the game is lost whatever is played.
+			long blocks = b.getWinningCells(b.getOpponent(me)) & open;
+			return new SearchResult(position.getSquare(Long.numberOfTrailingZeros(blocks != 0 ? blocks : open)),
+					0, playouts, time, true, expanded, cutoffs, 1, reused > 0 ? 1 : 0);
+		}
+		int best = firstChild[root];
+		for (int c = best + 1; c < firstChild[root] + childCount[root]; c++) {
+			if (visits[c] > visits[best])
+				best = c;
+		}
+		LOG.fine("Monte Carlo ran " + playouts + " playouts (" + reused + " kept from before) in "
+				+ time + " ms on " + threads + " threads, tree of " + nextFree + " nodes, "
+				+ Math.round(100.0 * score[best] / Math.max(1, 2 * visits[best])) + "% for its move");
+		// There is no natural end to the search, so running out of budget
+		// is finishing; only a cancelled search is incomplete.  The one
+		// table lookup is the search for the last tree's subtree.
+		return new SearchResult(position.getSquare(move[best]), deepest, playouts, time,
+				!Thread.currentThread().isInterrupted(), expanded, cutoffs, 1, reused > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Makes the node for the position the root, keeping its subtree if the
+	 * tree from the last search leads to it, otherwise clearing the arena.
+	 * @return how many playouts the kept subtree holds
+	 */
+	private int reuseTree(BitBoard b) {
+		if (firstChild == null) {
+			firstChild = new int[capacity];
+			childCount = new byte[capacity];
+			move = new byte[capacity];
+			visits = new int[capacity];
+			score = new long[capacity];
+		}
+		int node = -1;
+		if (rootBoard != null && rootBoard.getFirstPlayer() == b.getFirstPlayer()
+				&& rootBoard.getMoveCount() <= b.getMoveCount()) {
+			node = root;
+			for (int i = 0; i < rootBoard.getMoveCount() && node >= 0; i++) {
+				if (rootBoard.getMove(i) != b.getMove(i))
+					node = -1;
+			}
+			for (int i = rootBoard.getMoveCount(); i < b.getMoveCount() && node >= 0; i++)
+				node = findChild(node, b.getMove(i));
+		}
+		rootBoard = (BitBoard) b.clone();
+		if (node >= 0) {
+			root = node;
+			if (nextFree > capacity / 2)
+				compact();
+			return visits[root];
+		}
+		nextFree = 0;
+		root = allocate(1);
+		return 0;
+	}
+
+	/**
+	 * Moves the root's subtree to the front of the arena, freeing the rest.
+	 * Nodes keep their order, so each one moves down (or stays) and can
+	 * be copied in place.
+	 */
+	private void compact() {
+		if (forward == null) {
+			forward = new int[capacity];
+			kept = new long[(capacity + 63) / 64];
+		}
+		Arrays.fill(kept, 0);
+		int[] stack = new int[MAX_PLY * BitBoard.CELLS];
+		int top = 0;
+		stack[top++] = root;
+		kept[root >> 6] |= 1L << root;
+		while (top > 0) {
+			int node = stack[--top];
+			if (firstChild[node] == UNEXPANDED)
+				continue;
+			for (int c = firstChild[node]; c < firstChild[node] + childCount[node]; c++) {
+				kept[c >> 6] |= 1L << c;
+				stack[top++] = c;
+			}
+		}
+		int count = 0;
+		for (int n = 0; n < nextFree; n++) {
+			if ((kept[n >> 6] & (1L << n)) != 0)
+				forward[n] = count++;
+		}
+		for (int n = 0; n < nextFree; n++) {
+			if ((kept[n >> 6] & (1L << n)) == 0)
+				continue;
+			int to = forward[n];
+			firstChild[to] = firstChild[n] == UNEXPANDED ? UNEXPANDED : forward[firstChild[n]];
+			childCount[to] = childCount[n];
+			move[to] = move[n];
+			visits[to] = visits[n];
+			score[to] = score[n];
+		}
+		root = forward[root];
+		nextFree = count;
+	}
+
+	private int findChild(int node, int cell) {
+		for (int c = firstChild[node]; c >= 0 && c < firstChild[node] + childCount[node]; c++) {
+			if (move[c] == cell)
+				return c;
+		}
+		return -1;
+	}
+
+	/**
+	 * Takes count new nodes from the arena.
+	 * @return the first of them, or -1 if the arena is full
+	 */
+	private int allocate(int count) {
+		if (nextFree + count > capacity)
+			return -1;
+		int first = nextFree;
+		nextFree += count;
+		for (int n = first; n < nextFree; n++) {
+			firstChild[n] = UNEXPANDED;
+			childCount[n] = 0;
+			visits[n] = 0;
+			score[n] = 0;
+		}
+		return first;
+	}
+
+	/**
+	 * Gives a node its children.  A position where the player to move can
+	 * win, or can't block every row, gets none: the game is decided, and
+	 * that counts as a cutoff.  Called under the lock.
+	 */
+	private void expand(int node, BitBoard b) {
+		if (firstChild[node] != UNEXPANDED)
+			return;
+		Player me = b.getCurrentPlayer();
+		long open = b.getOpenCells();
+		long blocks = b.getWinningCells(b.getOpponent(me)) & open;
+		long moves;
+		if ((b.getWinningCells(me) & open) != 0 || Long.bitCount(blocks) > 1)
+			moves = 0;
+		else if (blocks != 0)
+			moves = blocks;
+		else
+			moves = open;
+		int first = allocate(Long.bitCount(moves));
+		if (first < 0)
+			return; // Out of room, the node stays a leaf.
+		expanded++;
+		if (moves == 0)
+			cutoffs++;
+		firstChild[node] = first;
+		childCount[node] = (byte) Long.bitCount(moves);
+		for (int c = first; moves != 0; moves &= moves - 1, c++)
+			move[c] = (byte) Long.numberOfTrailingZeros(moves);
+	}
+
+	/**
+	 * One thread's search: pick a path through the tree, play a random
+	 * game from its end and count the result along the path, until the
+	 * budget runs out.
+	 */
+	private void search(BitBoard b, Random random, long limit) {
+		int[] path = new int[MAX_PLY];
+		Player rootPlayer = b.getCurrentPlayer();
+		while (!stopped) {
+			int length;
+			synchronized (this) {
+				if (playouts >= limit || System.currentTimeMillis() > deadline
+						|| Thread.currentThread().isInterrupted()) {
+					stopped = true;
+					break;
+				}
+				playouts++;
+				int node = root;
+				path[0] = node;
+				length = 1;
+				visits[node]++;
+				while (true) {
+					if (firstChild[node] == UNEXPANDED && visits[node] > 1)
+						expand(node, b);
+					if (firstChild[node] == UNEXPANDED || childCount[node] == 0)
+						break;
+					node = select(node);
+					b.make(move[node]);
+					path[length++] = node;
+					visits[node]++; // Counts as a loss until the playout is back.
+				}
+				deepest = Math.max(deepest, length - 1);
+			}
+
+			Player winner = playout(b, random);
+			for (int i = 1; i < length; i++)
+				b.unmake();
+
+			synchronized (this) {
+				// The node at depth d was moved into by the root player when d is odd.
+				for (int d = 0; d < length; d++) {
+					Player mover = d % 2 == 1 ? rootPlayer : b.getOpponent(rootPlayer);
+					if (winner == null)
+						score[path[d]] += 1;
+					else if (winner == mover)
+						score[path[d]] += 2;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the child with the highest UCT value, an untried child if
+	 * there is one.
+	 */
+	private int select(int node) {
+		double logVisits = Math.log(visits[node]);
+		int best = -1;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (int c = firstChild[node]; c < firstChild[node] + childCount[node]; c++) {
+			if (visits[c] == 0)
+				return c;
+			double value = score[c] / (2.0 * visits[c]) + EXPLORATION * Math.sqrt(logVisits / visits[c]);
+			if (value > bestValue) {
+				bestValue = value;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Plays random moves to the end of the game, except that rows of three
+	 * are always completed or blocked, and puts the board back.
+	 * @return the winner, or null for a cat's game
+	 */
+	private static Player playout(BitBoard b, Random random) {
+		Player winner = null;
+		int played = 0;
+		while (true) {
+			long open = b.getOpenCells();
+			if (open == 0)
+				break;
+			Player me = b.getCurrentPlayer();
+			if ((b.getWinningCells(me) & open) != 0) {
+				winner = me;
+				break;
+			}
+			long blocks = b.getWinningCells(b.getOpponent(me)) & open;
+			if (Long.bitCount(blocks) > 1) {
+				winner = b.getOpponent(me);
+				break;
+			}
+			if (blocks == 0) {
+				blocks = open;
+				for (int skip = random.nextInt(Long.bitCount(open)); skip > 0; skip--)
+					blocks &= blocks - 1;
+			}
+			b.make(Long.numberOfTrailingZeros(blocks));
+			played++;
+		}
+		for (; played > 0; played--)
+			b.unmake();
+		return winner;
+	}
+
+	public String toString() {
+		return "Monte Carlo";
+	}
+}
@@ -0,0 +1,24 @@
+package ai;
+
+/**
+ * An AI that can keep thinking while its opponent does.  After it has
+ * moved, the controller calls startPondering; the AI guesses the
+ * opponent's reply and searches the position after it.  The next call
+ * to go() uses that work if the guess was right and throws it away if
+ * it was wrong.
+ * @author John Thomson
+ */
+public interface PonderingAI extends AnytimeAI {
+	/**
+	 * Starts searching in the background on the opponent's time.  The
+	 * board must have the opponent to move.
+	 */
+	public void startPondering();
+
+	/**
+	 * Stops the background search, if there is one, and throws it away.
+	 * Called when the board changes some other way than by the opponent
+	 * moving, like an undo or a new game.
+	 */
+	public void stopPondering();
+}
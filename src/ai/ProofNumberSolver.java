@@ -0,0 +1,345 @@
+package ai;
+
+import model.BitBoard;
+import model.Zobrist;
+import model.QubicBoard.Player;
+
+/**
+ * Proves or disproves that the player to move can force a win, using
+ * depth-first proof-number search (df-pn).  Every position has a proof
+ * number, roughly how many more positions must be shown won before it is
+ * won, and a disproof number, the same for showing it can't be won.  The
+ * search keeps walking down to the position that is cheapest to settle,
+ * and stops going deeper as soon as a sibling becomes cheaper, without
+ * ever keeping the whole tree in memory.
+ *
+ * The numbers are kept in a table of fixed size (given in megabytes),
+ * keyed by Zobrist key.  When two positions compete for a slot, the one
+ * that took more work to compute stays, so the memory used never grows
+ * however long the solver runs.
+ *
+ * Qubic specific shortcuts: a player with an open three wins on the
+ * spot, a player facing two open threes loses, a single open three forces
+ * the block, and ThreatSearch is asked for a quick forced win whenever the
+ * attacker is to move.  A full board counts as a failure for the attacker.
+ * @author John Thomson
+ */
+public class ProofNumberSolver {
+	/**
+	 * The result of a solve: the win was proven, disproven (the best the
+	 * attacker can get is a draw or a loss) or neither before the budget
+	 * ran out.
+	 */
+	public enum Result {
+		PROVEN, DISPROVEN, UNKNOWN
+	};
+
+	private static final int INFINITY = 100000000;
+	private static final int ENTRY_BYTES = 20;
+	private static final int THREAT_DEPTH = 4;
+
+	private long[] keys;
+	private int[] proofs;
+	private int[] disproofs;
+	private int[] work;
+	private int bucketMask;
+
+	private BitBoard b;
+	private Evaluator evaluator;
+	private Player attacker;
+	private long nodes;
+	private long probes;
+	private long hits;
+	private long nodeLimit;
+	private long deadline;
+	private volatile boolean stopped;
+	private boolean aborted;
+	private int[][] moveBuffers;
+	private int[][] proofBuffers;
+	private int[][] disproofBuffers;
+	private int[] counts;
+	private int resultProof;
+	private int resultDisproof;
+	private int bestMove;
+
+	/**
+	 * Constructs a solver whose table uses about the given number of
+	 * megabytes.
+	 * @param megabytes
+	 */
+	public ProofNumberSolver(int megabytes) {
+		if (megabytes < 1 || megabytes > 4096)
+			throw new IllegalArgumentException("Table size must be from 1 to 4096 MB, not " + megabytes);
+		int entries = Integer.highestOneBit((int) Math.min(1 << 30, ((long) megabytes << 20) / ENTRY_BYTES));
+		keys = new long[entries];
+		proofs = new int[entries];
+		disproofs = new int[entries];
+		work = new int[entries];
+		bucketMask = entries / 2 - 1;
+		moveBuffers = new int[BitBoard.CELLS + 1][BitBoard.CELLS];
+		proofBuffers = new int[BitBoard.CELLS + 1][BitBoard.CELLS];
+		disproofBuffers = new int[BitBoard.CELLS + 1][BitBoard.CELLS];
+		counts = new int[BitBoard.CELLS + 1];
+		evaluator = new Evaluator(Weights.EXPERT);
+	}
+
+	/**
+	 * Tries to prove that the player to move in the given position can
+	 * force a win.  The table is kept between calls, so solving positions
+	 * from the same game reuses earlier work.
+	 * @param position The position, left unchanged
+	 * @param nodeLimit The most positions to visit
+	 * @return the result
+	 */
+	public Result solve(BitBoard position, long nodeLimit) {
+		return solve(position, SearchBudget.nodes(nodeLimit));
+	}
+
+	/**
+	 * Same as solve(position, nodeLimit), but gives up when either limit
+	 * of the budget is reached.
+	 * @param position The position, left unchanged
+	 * @param budget How long to try
+	 * @return the result
+	 */
+	public Result solve(BitBoard position, SearchBudget budget) {
+		b = (BitBoard) position.clone();
+		evaluator.reset(b);
+		attacker = b.getCurrentPlayer();
+		nodeLimit = budget.getNodeLimit();
+		deadline = budget.getDeadline(System.currentTimeMillis());
+		nodes = 0;
+		probes = 0;
+		hits = 0;
+		stopped = false;
+		aborted = false;
+		bestMove = -1;
+
+		long wins = b.getWinningCells(attacker) & b.getOpenCells();
+		if (wins != 0) {
+			bestMove = Long.numberOfTrailingZeros(wins);
+			return Result.PROVEN;
+		}
+		if ((b.getWinningCells(b.getOpponent(attacker)) & b.getOpenCells()) == 0) {
+			bestMove = ThreatSearch.findWin(b, THREAT_DEPTH);
+			if (bestMove >= 0)
+				return Result.PROVEN;
+		}
+		while (!aborted) {
+			search(0, INFINITY, INFINITY);
+			if (resultProof == 0 || resultDisproof == 0)
+				break;
+		}
+		if (resultProof == 0) {
+			for (int i = 0; i < counts[0]; i++) {
+				if (proofBuffers[0][i] == 0)
+					bestMove = moveBuffers[0][i];
+			}
+			return Result.PROVEN;
+		} else if (resultDisproof == 0) {
+			return Result.DISPROVEN;
+		}
+		return Result.UNKNOWN;
+	}
+
+	/**
+	 * Returns the winning move found by the last solve that proved a win,
+	 * otherwise -1.
+	 */
+	public int getBestMove() {
+		return bestMove;
+	}
+
+	/**
+	 * Returns the number of positions visited by the current or last solve.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the number of table lookups made by the current or last
+	 * solve.
+	 */
+	public long getProbes() {
+		return probes;
+	}
+
+	/**
+	 * Returns the number of those lookups that found the position.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Asks a running solve to give up as soon as it can.  Safe to call
+	 * from another thread; interrupting the solving thread does the same.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Searches the current position until its proof number reaches
+	 * maxProof or its disproof number reaches maxDisproof, and leaves the
+	 * numbers in resultProof and resultDisproof.
+	 */
+	private void search(int ply, int maxProof, int maxDisproof) {
+		nodes++;
+		if (nodes >= nodeLimit || stopped || ((nodes & 255) == 0
+				&& (Thread.currentThread().isInterrupted() || System.currentTimeMillis() > deadline)))
+			aborted = true;
+
+		Player me = b.getCurrentPlayer();
+		Player opponent = b.getOpponent(me);
+		boolean attacking = me == attacker;
+		long key = b.getKey();
+		long open = b.getOpenCells();
+		long blocks = b.getWinningCells(opponent) & open;
+		if ((b.getWinningCells(me) & open) != 0) {
+			setResult(key, attacking);
+			return;
+		} else if (open == 0) {
+			setResult(key, false);
+			return;
+		} else if (Long.bitCount(blocks) > 1) {
+			// Only one of the threats can be blocked, the side to move loses.
+			setResult(key, !attacking);
+			return;
+		} else if (attacking && blocks == 0 && ThreatSearch.findWin(b, THREAT_DEPTH) >= 0) {
+			setResult(key, true);
+			return;
+		}
+
+		int[] moves = moveBuffers[ply];
+		int[] childProofs = proofBuffers[ply];
+		int[] childDisproofs = disproofBuffers[ply];
+		int count;
+		if (blocks != 0) {
+			moves[0] = Long.numberOfTrailingZeros(blocks);
+			count = 1;
+		} else {
+			count = evaluator.order(me, moves, childProofs);
+		}
+		counts[ply] = count;
+		long childBase = key ^ Zobrist.toMove(me) ^ Zobrist.toMove(opponent);
+		for (int i = 0; i < count; i++) {
+			int slot = find(childBase ^ Zobrist.piece(me, moves[i]));
+			if (slot >= 0) {
+				childProofs[i] = proofs[slot];
+				childDisproofs[i] = disproofs[slot];
+			} else {
+				childProofs[i] = 1;
+				childDisproofs[i] = 1;
+			}
+		}
+
+		long startNodes = nodes;
+		int proof;
+		int disproof;
+		while (true) {
+			// At the attacker's moves one child has to be won, at the
+			// defender's moves all of them.
+			int best = 0;
+			int second = INFINITY;
+			if (attacking) {
+				proof = INFINITY;
+				disproof = 0;
+				for (int i = 0; i < count; i++) {
+					disproof = Math.min(INFINITY, disproof + childDisproofs[i]);
+					if (childProofs[i] < proof) {
+						second = proof;
+						proof = childProofs[i];
+						best = i;
+					} else if (childProofs[i] < second) {
+						second = childProofs[i];
+					}
+				}
+			} else {
+				proof = 0;
+				disproof = INFINITY;
+				for (int i = 0; i < count; i++) {
+					proof = Math.min(INFINITY, proof + childProofs[i]);
+					if (childDisproofs[i] < disproof) {
+						second = disproof;
+						disproof = childDisproofs[i];
+						best = i;
+					} else if (childDisproofs[i] < second) {
+						second = childDisproofs[i];
+					}
+				}
+			}
+			if (proof >= maxProof || disproof >= maxDisproof || aborted)
+				break;
+
+			int childMaxProof;
+			int childMaxDisproof;
+			if (attacking) {
+				childMaxProof = Math.min(maxProof, second + 1);
+				childMaxDisproof = shift(maxDisproof, disproof, childDisproofs[best]);
+			} else {
+				childMaxProof = shift(maxProof, proof, childProofs[best]);
+				childMaxDisproof = Math.min(maxDisproof, second + 1);
+			}
+			b.make(moves[best]);
+			evaluator.make(me, moves[best]);
+			search(ply + 1, childMaxProof, childMaxDisproof);
+			evaluator.unmake(me, moves[best]);
+			b.unmake();
+			childProofs[best] = resultProof;
+			childDisproofs[best] = resultDisproof;
+		}
+		store(key, proof, disproof, nodes - startNodes);
+		resultProof = proof;
+		resultDisproof = disproof;
+	}
+
+	/**
+	 * The threshold a child gets from its parent's: what is left of the
+	 * parent's threshold once the other children are counted.
+	 */
+	private static int shift(int parentMax, int parentSum, int child) {
+		if (parentMax >= INFINITY)
+			return INFINITY;
+		return Math.min(INFINITY, parentMax - parentSum + child);
+	}
+
+	private void setResult(long key, boolean won) {
+		resultProof = won ? 0 : INFINITY;
+		resultDisproof = won ? INFINITY : 0;
+		store(key, resultProof, resultDisproof, 1);
+	}
+
+	/**
+	 * Returns the table slot holding the key, or -1.
+	 */
+	private int find(long key) {
+		int slot = (int) (key & bucketMask) * 2;
+		probes++;
+		if (keys[slot] == key) {
+			hits++;
+			return slot;
+		}
+		if (keys[slot + 1] == key) {
+			hits++;
+			return slot + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Stores the numbers for a position.  A position already in the
+	 * bucket is updated, otherwise the entry that took less work to
+	 * compute is replaced.
+	 */
+	private void store(long key, int proof, int disproof, long effort) {
+		int slot = (int) (key & bucketMask) * 2;
+		if (keys[slot] != key && (keys[slot + 1] == key || work[slot + 1] < work[slot]))
+			slot++;
+		keys[slot] = key;
+		proofs[slot] = proof;
+		disproofs[slot] = disproof;
+		work[slot] = (int) Math.min(Integer.MAX_VALUE, effort);
+	}
+}
@@ -1,5 +1,6 @@
 package ai;
 
+import model.QubicBoard;
 import model.Square;
 
 /**
@@ -15,4 +16,13 @@ public interface QubicAI {
 	 */
 	public Square go(); 
 	
+	/**
+	 * Same as go(), but in the given position instead of the AI's own
+	 * board.  The position is a snapshot of the AI's board (see
+	 * QubicBoard.snapshot), so the AI can think on another thread while
+	 * the board itself changes.
+	 * @param position
+	 * @return move, a square of the position
+	 */
+	public Square go(QubicBoard position);
 }
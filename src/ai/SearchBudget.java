@@ -0,0 +1,78 @@
+package ai;
+
+/**
+ * How long an AI may think about one move: a time limit, a limit on the
+ * number of positions searched, or both.  Whichever runs out first ends
+ * the search.
+ * @author John Thomson
+ */
+public final class SearchBudget {
+	/** No limit at all, the search runs until it is done. */
+	public static final SearchBudget UNLIMITED = new SearchBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+
+	private final long timeLimit;
+	private final long nodeLimit;
+
+	private SearchBudget(long timeLimit, long nodeLimit) {
+		if (timeLimit < 0 || nodeLimit < 0)
+			throw new IllegalArgumentException("A budget can't be negative");
+		this.timeLimit = timeLimit;
+		this.nodeLimit = nodeLimit;
+	}
+
+	/**
+	 * A budget of the given time and any number of positions.
+	 * @param millis
+	 */
+	public static SearchBudget time(long millis) {
+		return new SearchBudget(millis, Long.MAX_VALUE);
+	}
+
+	/**
+	 * A budget of the given number of positions and any amount of time.
+	 * @param nodes
+	 */
+	public static SearchBudget nodes(long nodes) {
+		return new SearchBudget(Long.MAX_VALUE, nodes);
+	}
+
+	/**
+	 * A budget that ends at whichever limit is reached first.
+	 * @param millis
+	 * @param nodes
+	 */
+	public static SearchBudget of(long millis, long nodes) {
+		return new SearchBudget(millis, nodes);
+	}
+
+	/**
+	 * Returns the time limit in milliseconds, Long.MAX_VALUE if there is none.
+	 */
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	/**
+	 * Returns the most positions to search, Long.MAX_VALUE if there is no limit.
+	 */
+	public long getNodeLimit() {
+		return nodeLimit;
+	}
+
+	/**
+	 * Returns the time the budget runs out for a search started at the
+	 * given time, as from System.currentTimeMillis.
+	 * @param startTime
+	 */
+	public long getDeadline(long startTime) {
+		if (timeLimit > Long.MAX_VALUE - startTime)
+			return Long.MAX_VALUE;
+		return startTime + timeLimit;
+	}
+
+	public String toString() {
+		String time = timeLimit == Long.MAX_VALUE ? "any time" : timeLimit + " ms";
+		String nodes = nodeLimit == Long.MAX_VALUE ? "any number of positions" : nodeLimit + " positions";
+		return time + ", " + nodes;
+	}
+}
@@ -0,0 +1,272 @@
+package ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import model.QubicBoard;
+import model.Square;
+
+/**
+ * Keeps the statistics of every move the AIs make, for watching how the
+ * engines perform without reading their output.  It is registered with
+ * the platform MBean server as qubic:type=SearchMonitor, where JConsole
+ * can show the latest move's figures and the totals.
+ *
+ * When the qubic.statsLog system property is set, every move is also
+ * written as a line to a rolling log named by it, in the pattern
+ * FileHandler takes (e.g. qubic-stats%g.log): LOG_FILES files of at most
+ * LOG_LIMIT bytes, the oldest dropped when the newest fills.  New moves
+ * are added to an existing log, so the column header is only written at
+ * the top of a new file.
+ *
+ * The log has a logger of its own, ai.SearchMonitor.stats.  Everything
+ * else goes to java.util.logging under each class's name: what the AIs
+ * notice along the way (a pondered move, a forced win) at FINE, progress
+ * at INFO and failures at WARNING.
+ *
+ * AIs are asked for their moves through think, which records them.
+ * AnytimeAIs and MeasuredAIs report their own counts; for the others only
+ * the time taken is known.
+ * @author John Thomson
+ */
+public class SearchMonitor implements SearchMonitorMBean {
+	private static final Logger LOG = Logger.getLogger(SearchMonitor.class.getName());
+	private static final int LOG_LIMIT = 1 << 20;
+	private static final int LOG_FILES = 5;
+	private static final SearchMonitor INSTANCE = new SearchMonitor();
+
+	private Logger statsLog;
+	private String lastAI;
+	private SearchResult last;
+	private long moves;
+	private long nodes;
+	private long time;
+	private long expanded;
+	private long cutoffs;
+	private long probes;
+	private long hits;
+
+	private SearchMonitor() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("qubic:type=SearchMonitor"));
+		} catch (JMException e) {
+			LOG.warning("Could not register the search statistics with JMX: " + e.getMessage());
+		}
+		String pattern = System.getProperty("qubic.statsLog");
+		if (pattern != null) {
+			try {
+				final boolean appending = firstLogFile(pattern).length() > 0;
+				FileHandler handler = new FileHandler(pattern, LOG_LIMIT, LOG_FILES, true);
+				handler.setFormatter(new Formatter() {
+					private boolean continued = appending;
+
+					public String format(LogRecord record) {
+						return record.getMillis() + "\t" + record.getMessage() + "\n";
+					}
+
+					public String getHead(Handler h) {
+						// Asked once per file: the one carried on from last
+						// time already has its header.
+						if (continued) {
+							continued = false;
+							return "";
+						}
+						return "time\tAI\tmove\tpositions\tms\tpositions/s\tdepth\tbranching\tcutoffs\thits"
+								+ "\tcomplete\n";
+					}
+				});
+				// A logger of its own, so the moves only go to the file.
+				statsLog = Logger.getLogger(SearchMonitor.class.getName() + ".stats");
+				statsLog.setUseParentHandlers(false);
+				statsLog.addHandler(handler);
+			} catch (IOException e) {
+				LOG.warning("Could not open the search statistics log " + pattern + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Returns the file FileHandler appends to first for the pattern: the
+	 * newest generation of the first unit.
+	 */
+	private static File firstLogFile(String pattern) {
+		StringBuilder name = new StringBuilder();
+		boolean generation = false;
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			char next = i + 1 < pattern.length() ? pattern.charAt(i + 1) : 0;
+			if (c != '%' || next == 0) {
+				name.append(c);
+				continue;
+			}
+			i++;
+			if (next == 't')
+				name.append(System.getProperty("java.io.tmpdir"));
+			else if (next == 'h')
+				name.append(System.getProperty("user.home"));
+			else if (next == 'g' || next == 'u') {
+				name.append('0');
+				generation |= next == 'g';
+			} else if (next == '%')
+				name.append('%');
+			else
+				name.append(c).append(next);
+		}
+		if (!generation)
+			name.append(".0");
+		return new File(name.toString());
+	}
+
+	/**
+	 * Returns the monitor, which is registered when the class is loaded.
+	 */
+	public static SearchMonitor getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Asks the AI for a move, within the budget if it takes one, and
+	 * records how the search went.
+	 * @param ai
+	 * @param budget
+	 * @return the move and how much searching went into it
+	 */
+	public static SearchResult think(QubicAI ai, SearchBudget budget) {
+		return think(ai, null, budget);
+	}
+
+	/**
+	 * Same as think(ai, budget), but in the given position instead of the
+	 * AI's own board.
+	 * @param ai
+	 * @param position A snapshot of the AI's board, or null for the board
+	 * itself
+	 * @param budget
+	 * @return the move, a square of the position, and how much searching
+	 * went into it
+	 */
+	public static SearchResult think(QubicAI ai, QubicBoard position, SearchBudget budget) {
+		SearchResult result;
+		if (ai instanceof AnytimeAI) {
+			AnytimeAI anytime = (AnytimeAI) ai;
+			result = position == null ? anytime.go(budget) : anytime.go(position, budget);
+		} else {
+			long start = System.currentTimeMillis();
+			Square move = position == null ? ai.go() : ai.go(position);
+			result = ai instanceof MeasuredAI ? ((MeasuredAI) ai).getLastResult() : null;
+			if (result == null)
+				result = new SearchResult(move, 0, 0, System.currentTimeMillis() - start, true);
+		}
+		INSTANCE.record(ai.toString(), result);
+		return result;
+	}
+
+	/**
+	 * Adds a move to the statistics and the log.
+	 * @param ai The name of the AI that made it
+	 * @param result
+	 */
+	public synchronized void record(String ai, SearchResult result) {
+		lastAI = ai;
+		last = result;
+		moves++;
+		nodes += result.getNodes();
+		time += result.getTime();
+		expanded += result.getExpanded();
+		cutoffs += result.getCutoffs();
+		probes += result.getProbes();
+		hits += result.getHits();
+		if (statsLog != null)
+			statsLog.info(String.format("%s\t%s\t%d\t%d\t%.0f\t%d\t%.2f\t%.3f\t%.3f\t%b", ai, result.getMove(),
+					result.getNodes(), result.getTime(), result.getNodesPerSecond(), result.getDepth(),
+					result.getBranchingFactor(), result.getCutoffRate(), result.getHitRate(),
+					result.isComplete()));
+	}
+
+	public synchronized void reset() {
+		moves = 0;
+		nodes = 0;
+		time = 0;
+		expanded = 0;
+		cutoffs = 0;
+		probes = 0;
+		hits = 0;
+	}
+
+	/**
+	 * Returns the latest move recorded, or null.
+	 */
+	public synchronized SearchResult getLast() {
+		return last;
+	}
+
+	public synchronized long getMoves() {
+		return moves;
+	}
+
+	public synchronized String getLastAI() {
+		return lastAI;
+	}
+
+	public synchronized String getLastMove() {
+		return last == null ? null : "" + last.getMove();
+	}
+
+	public synchronized long getLastNodes() {
+		return last == null ? 0 : last.getNodes();
+	}
+
+	public synchronized long getLastTime() {
+		return last == null ? 0 : last.getTime();
+	}
+
+	public synchronized double getLastNodesPerSecond() {
+		return last == null ? Double.NaN : last.getNodesPerSecond();
+	}
+
+	public synchronized int getLastDepth() {
+		return last == null ? 0 : last.getDepth();
+	}
+
+	public synchronized double getLastBranchingFactor() {
+		return last == null ? Double.NaN : last.getBranchingFactor();
+	}
+
+	public synchronized double getLastCutoffRate() {
+		return last == null ? Double.NaN : last.getCutoffRate();
+	}
+
+	public synchronized double getLastHitRate() {
+		return last == null ? Double.NaN : last.getHitRate();
+	}
+
+	public synchronized long getTotalNodes() {
+		return nodes;
+	}
+
+	public synchronized long getTotalTime() {
+		return time;
+	}
+
+	public synchronized double getNodesPerSecond() {
+		return nodes * 1000.0 / Math.max(1, time);
+	}
+
+	public synchronized double getCutoffRate() {
+		return expanded == 0 ? Double.NaN : (double) cutoffs / expanded;
+	}
+
+	public synchronized double getHitRate() {
+		return probes == 0 ? Double.NaN : (double) hits / probes;
+	}
+}
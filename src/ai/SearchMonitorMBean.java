@@ -0,0 +1,45 @@
+package ai;
+
+/**
+ * The management interface of SearchMonitor, as it shows in JConsole and
+ * other JMX clients.  The Last attributes describe the latest move made
+ * by any AI, the others every move since the start or the last reset.
+ * Figures an AI doesn't count are NaN.
+ * @author John Thomson
+ */
+public interface SearchMonitorMBean {
+	public long getMoves();
+
+	public String getLastAI();
+
+	public String getLastMove();
+
+	public long getLastNodes();
+
+	public long getLastTime();
+
+	public double getLastNodesPerSecond();
+
+	public int getLastDepth();
+
+	public double getLastBranchingFactor();
+
+	public double getLastCutoffRate();
+
+	public double getLastHitRate();
+
+	public long getTotalNodes();
+
+	public long getTotalTime();
+
+	public double getNodesPerSecond();
+
+	public double getCutoffRate();
+
+	public double getHitRate();
+
+	/**
+	 * Starts the totals again from zero.
+	 */
+	public void reset();
+}
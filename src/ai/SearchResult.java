@@ -0,0 +1,140 @@
+package ai;
+
+import model.Square;
+
+/**
+ * What an AI found: the move to play and how much searching went into
+ * it.  Besides the raw counts it works out the figures for judging how
+ * well a search went: positions a second, the effective branching factor,
+ * and how often moves cut a search short and positions were found in a
+ * table.  Counts an AI doesn't keep are left at zero, and the figures
+ * made from them come out as NaN.
+ * @author John Thomson
+ */
+public final class SearchResult {
+	private final Square move;
+	private final int depth;
+	private final long nodes;
+	private final long time;
+	private final boolean complete;
+	private final long expanded;
+	private final long cutoffs;
+	private final long probes;
+	private final long hits;
+
+	/**
+	 * @param move The move to play
+	 * @param depth How many moves deep the deepest finished search looked
+	 * @param nodes How many positions were searched
+	 * @param time How long the search took, in milliseconds
+	 * @param complete False if the budget ran out before the search was done
+	 */
+	public SearchResult(Square move, int depth, long nodes, long time, boolean complete) {
+		this(move, depth, nodes, time, complete, 0, 0, 0, 0);
+	}
+
+	/**
+	 * @param move The move to play
+	 * @param depth How many moves deep the deepest finished search looked
+	 * @param nodes How many positions were searched
+	 * @param time How long the search took, in milliseconds
+	 * @param complete False if the budget ran out before the search was done
+	 * @param expanded How many of the positions had their moves searched
+	 * @param cutoffs How many of those were left before every move had been
+	 * tried, because one move settled the position
+	 * @param probes How many times a position was looked up in a table
+	 * @param hits How many of the lookups found the position
+	 */
+	public SearchResult(Square move, int depth, long nodes, long time, boolean complete, long expanded,
+			long cutoffs, long probes, long hits) {
+		this.move = move;
+		this.depth = depth;
+		this.nodes = nodes;
+		this.time = time;
+		this.complete = complete;
+		this.expanded = expanded;
+		this.cutoffs = cutoffs;
+		this.probes = probes;
+		this.hits = hits;
+	}
+
+	public Square getMove() {
+		return move;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns true if the search finished within its budget, false if the
+	 * move is only the best found before the budget ran out.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public long getExpanded() {
+		return expanded;
+	}
+
+	public long getCutoffs() {
+		return cutoffs;
+	}
+
+	public long getProbes() {
+		return probes;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the positions searched a second.  A search quicker than the
+	 * clock can measure counts as taking a millisecond.
+	 */
+	public double getNodesPerSecond() {
+		return nodes * 1000.0 / Math.max(1, time);
+	}
+
+	/**
+	 * Returns the effective branching factor: how many moves a position
+	 * would need for a full tree as deep as the search to hold as many
+	 * positions as it searched.  NaN if the search looked no moves deep.
+	 */
+	public double getBranchingFactor() {
+		if (depth <= 0 || nodes <= 0)
+			return Double.NaN;
+		return Math.pow(nodes, 1.0 / depth);
+	}
+
+	/**
+	 * Returns the share of the positions whose moves were searched that
+	 * were cut short, or NaN if the AI doesn't count them.
+	 */
+	public double getCutoffRate() {
+		return expanded == 0 ? Double.NaN : (double) cutoffs / expanded;
+	}
+
+	/**
+	 * Returns the share of table lookups that found the position, or NaN
+	 * if the AI made none.
+	 */
+	public double getHitRate() {
+		return probes == 0 ? Double.NaN : (double) hits / probes;
+	}
+
+	public String toString() {
+		return move + " (" + depth + " moves deep, " + nodes + " positions in " + time + " ms"
+				+ (complete ? ")" : ", out of time)");
+	}
+}
@@ -12,17 +12,24 @@ import model.Square;
  * @author John Thomson
  *
  */
-public class SimpleAI implements QubicAI{
+public class SimpleAI implements MeasuredAI {
 	private QubicBoard board;
+	private SearchResult lastResult;
 	public SimpleAI(QubicBoard board) {
 		this.board = board;
 	}
 	
 	/**
-	 * Randomly selects an open square on the board.
+	 * Randomly selects an open square on the board.  Only the position
+	 * itself is looked at, so the statistics count one position and no
+	 * depth.
 	 */
 	public Square go() {
-		List<Square> grid = board.getGrid();
+		return go(board);
+	}
+	
+	public Square go(QubicBoard position) {
+		List<Square> grid = position.getGrid();
 		List<Square> openGrid = new ArrayList<Square>();
 		for (Square s: grid) {
 			if (s.getState() == null) {
@@ -31,7 +38,12 @@ public class SimpleAI implements QubicAI{
 		}
 		Random r = new Random();
 		int index = r.nextInt(openGrid.size());
-		return openGrid.get(index);
+		lastResult = new SearchResult(openGrid.get(index), 0, 1, 0, true, 1, 0, 0, 0);
+		return lastResult.getMove();
+	}
+	
+	public SearchResult getLastResult() {
+		return lastResult;
 	}
 	
 	public String toString() {
@@ -0,0 +1,234 @@
+package ai;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import model.BitBoard;
+import model.Symmetry;
+import model.Zobrist;
+import model.QubicBoard.Player;
+
+/**
+ * A winning strategy stored on disk: for every position the strategy can
+ * reach with the winner to move, the move to play.  The file is memory
+ * mapped rather than read, so opening even a large book is instant and
+ * costs no heap, and finding a move is a single hash lookup.
+ *
+ * Positions are stored in canonical form (see Symmetry) with the player
+ * to move counted as the first player, so one entry covers all 192
+ * symmetric copies of a position and the book works whichever side the
+ * winner is playing.
+ *
+ * The file is a 16 byte header (magic number, version, slot count, entry
+ * count), then the table's keys as longs, then its moves as bytes, one
+ * per slot.  An empty slot has key 0.  The table is at most half full
+ * and is searched by linear probing.
+ * @author John Thomson
+ */
+public class StrategyBook {
+	private static final int MAGIC = 0x51535442; // "QSTB"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+
+	private final MappedByteBuffer buffer;
+	private final int slots;
+	private final int entries;
+
+	private StrategyBook(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			throw new IOException("Not a strategy book");
+		slots = buffer.getInt(8);
+		entries = buffer.getInt(12);
+		if (Integer.bitCount(slots) != 1 || buffer.capacity() != HEADER_BYTES + 9L * slots)
+			throw new IOException("Strategy book is damaged");
+	}
+
+	/**
+	 * Maps a book file into memory.
+	 * @param file
+	 * @return the book
+	 * @throws IOException if the file can't be read or isn't a book
+	 */
+	public static StrategyBook open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new StrategyBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close(); // The mapping stays valid after the file is closed.
+		}
+	}
+
+	/**
+	 * Looks up the move to play in a position.
+	 * @param b The position
+	 * @return the move, or -1 if the position isn't in the book
+	 */
+	public int lookup(BitBoard b) {
+		int sym = canonicalSymmetry(b);
+		long key = key(b, sym);
+		int mask = slots - 1;
+		for (int slot = (int) key & mask; ; slot = (slot + 1) & mask) {
+			long stored = buffer.getLong(HEADER_BYTES + 8 * slot);
+			if (stored == 0)
+				return -1;
+			if (stored == key)
+				return Symmetry.map(Symmetry.inverse(sym), buffer.get(HEADER_BYTES + 8 * slots + slot));
+		}
+	}
+
+	/**
+	 * Returns the number of positions in the book.
+	 */
+	public int size() {
+		return entries;
+	}
+
+	/**
+	 * Writes a book file.
+	 * @param file
+	 * @param moves Canonical keys and canonical moves, as made by build
+	 * @throws IOException
+	 */
+	public static void write(File file, Map<Long, Integer> moves) throws IOException {
+		int slots = Integer.highestOneBit(Math.max(1, moves.size()) * 2) * 2;
+		long[] keys = new long[slots];
+		byte[] cells = new byte[slots];
+		for (Map.Entry<Long, Integer> e : moves.entrySet()) {
+			long key = e.getKey();
+			int slot = (int) key & (slots - 1);
+			while (keys[slot] != 0)
+				slot = (slot + 1) & (slots - 1);
+			keys[slot] = key;
+			cells[slot] = (byte) (int) e.getValue();
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(slots);
+			out.writeInt(moves.size());
+			for (long key : keys)
+				out.writeLong(key);
+			out.write(cells);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Works out a whole winning strategy for the player to move: the
+	 * winning move in the starting position, then in every position any
+	 * defence can lead to, proving each one with the solver.
+	 * @param start The starting position, left unchanged
+	 * @param solver
+	 * @param nodeLimit The most positions the solver may visit per move
+	 * @return the canonical keys and moves, or null if some position
+	 * couldn't be proven
+	 */
+	public static Map<Long, Integer> build(BitBoard start, ProofNumberSolver solver, long nodeLimit) {
+		Map<Long, Integer> moves = new TreeMap<Long, Integer>();
+		if (!build((BitBoard) start.clone(), solver, nodeLimit, moves, new HashSet<Long>()))
+			return null;
+		return moves;
+	}
+
+	private static boolean build(BitBoard b, ProofNumberSolver solver, long nodeLimit,
+			Map<Long, Integer> moves, Set<Long> seen) {
+		int sym = canonicalSymmetry(b);
+		long key = key(b, sym);
+		if (!seen.add(key))
+			return true;
+		Player attacker = b.getCurrentPlayer();
+		long wins = b.getWinningCells(attacker) & b.getOpenCells();
+		int move;
+		if (wins != 0) {
+			move = Long.numberOfTrailingZeros(wins);
+		} else {
+			if (solver.solve(b, nodeLimit) != ProofNumberSolver.Result.PROVEN)
+				return false;
+			move = solver.getBestMove();
+		}
+		moves.put(key, Symmetry.map(sym, move));
+		if (wins != 0)
+			return true;
+
+		b.make(move);
+		boolean proven = b.getOpenCells() != 0;
+		for (long replies = Symmetry.distinctMoves(b); replies != 0 && proven; replies &= replies - 1) {
+			int reply = Long.numberOfTrailingZeros(replies);
+			if (b.isWinningMove(b.getCurrentPlayer(), reply)) {
+				proven = false; // The solver was wrong, don't trust the rest.
+				break;
+			}
+			b.make(reply);
+			proven = build(b, solver, nodeLimit, moves, seen);
+			b.unmake();
+		}
+		b.unmake();
+		return proven;
+	}
+
+	/**
+	 * Checks that the book holds a whole winning strategy from the given
+	 * position, without the solver: that it has a legal move for every
+	 * position any defence can lead to, and that no defence wins or draws.
+	 * @param start The starting position, with the winner to move, left
+	 * unchanged
+	 * @return true if the strategy is complete
+	 */
+	public boolean verify(BitBoard start) {
+		return verify((BitBoard) start.clone(), new HashSet<Long>());
+	}
+
+	private boolean verify(BitBoard b, Set<Long> seen) {
+		if (!seen.add(b.getKey()))
+			return true;
+		int move = lookup(b);
+		if (move < 0 || (b.getOpenCells() & (1L << move)) == 0)
+			return false;
+		if (b.isWinningMove(b.getCurrentPlayer(), move))
+			return true;
+
+		b.make(move);
+		boolean won = b.getOpenCells() != 0;
+		for (long replies = Symmetry.distinctMoves(b); replies != 0 && won; replies &= replies - 1) {
+			int reply = Long.numberOfTrailingZeros(replies);
+			if (b.isWinningMove(b.getCurrentPlayer(), reply)) {
+				won = false;
+				break;
+			}
+			b.make(reply);
+			won = verify(b, seen);
+			b.unmake();
+		}
+		b.unmake();
+		return won;
+	}
+
+	/**
+	 * The symmetry taking the position to canonical form, with the player
+	 * to move's pieces compared first.
+	 */
+	private static int canonicalSymmetry(BitBoard b) {
+		Player me = b.getCurrentPlayer();
+		return Symmetry.canonicalSymmetry(b.getPieces(me), b.getPieces(b.getOpponent(me)));
+	}
+
+	private static long key(BitBoard b, int sym) {
+		Player me = b.getCurrentPlayer();
+		return Zobrist.key(Symmetry.transform(sym, b.getPieces(me)),
+				Symmetry.transform(sym, b.getPieces(b.getOpponent(me))), Player.COMPUTER);
+	}
+}
@@ -0,0 +1,223 @@
+package ai;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import model.BitBoard;
+import model.QubicBoard.Player;
+
+/**
+ * Finds forced wins made of threats, in the style of Allis' threat-space
+ * search for Qubic.  A threat is a move that leaves a row with three of
+ * the attacker's pieces and an open square, so the defender has to block
+ * it.  The attacker wins by making two threats at once, or by a chain of
+ * single threats whose forced blocks lead to one.
+ *
+ * Only threats are tried for the attacker and only the forced block for
+ * the defender, so the search stays tiny and every win it reports is a
+ * real win.  When a defender's block makes a threat of their own, the
+ * attacker has to answer it, and the line only goes on if that answer
+ * is itself a threat.  Positions already shown not to win are
+ * remembered by Zobrist key.
+ *
+ * The other AIs can use findWin and findDefences as a quick check before
+ * their own search.  A ThreatSearch made with the public constructor
+ * keeps count of the positions it visits and its lookups of failed
+ * positions, for ThreatSpaceAI's statistics.
+ * @author John Thomson
+ */
+public class ThreatSearch {
+	/** How many threats deep the searches look by default. */
+	public static final int DEFAULT_DEPTH = 16;
+
+	private BitBoard b;
+	private Map<Long, Integer> failed;
+	private int level;
+	private int deepest;
+	private long nodes;
+	private long expanded;
+	private long cutoffs;
+	private long probes;
+	private long hits;
+
+	/**
+	 * Constructs a search.  Positions it shows not to win are remembered
+	 * from one call to the next.
+	 */
+	public ThreatSearch() {
+		failed = new HashMap<Long, Integer>();
+	}
+
+	/**
+	 * Looks for a forced win for the player to move.
+	 * @param b The position, left unchanged
+	 * @param depth The most threats to play in a row
+	 * @return the first move of the win, or -1 if none was found
+	 */
+	public static int findWin(BitBoard b, int depth) {
+		return new ThreatSearch().win(b, depth);
+	}
+
+	/**
+	 * Same as findWin, counting the work.
+	 */
+	public int win(BitBoard b, int depth) {
+		this.b = b;
+		return attack(depth);
+	}
+
+	/**
+	 * Finds the moves for the player to move that leave the opponent
+	 * without a forced win.
+	 * @param b The position, left unchanged
+	 * @param depth The most threats in a row the opponent may play
+	 * @return the safe moves, as a bit set.  Every open cell when the
+	 * opponent has no threats to play at all, no cells when the game is
+	 * lost whatever is played.
+	 */
+	public static long findDefences(BitBoard b, int depth) {
+		return new ThreatSearch().defences(b, depth);
+	}
+
+	/**
+	 * Same as findDefences, counting the work.
+	 */
+	public long defences(BitBoard b, int depth) {
+		this.b = b;
+		long open = b.getOpenCells();
+		Player opponent = b.getOpponent(b.getCurrentPlayer());
+		if (threatCells(b, opponent) == 0 && b.getWinningCells(opponent) == 0)
+			return open;
+		long safe = 0;
+		for (long moves = open; moves != 0; moves &= moves - 1) {
+			int cell = Long.numberOfTrailingZeros(moves);
+			if (b.isWinningMove(b.getCurrentPlayer(), cell)) {
+				safe |= 1L << cell;
+				continue;
+			}
+			b.make(cell);
+			nodes++;
+			level++;
+			if (attack(depth) < 0)
+				safe |= 1L << cell;
+			level--;
+			b.unmake();
+		}
+		return safe;
+	}
+
+	/**
+	 * Returns how many positions the searches have visited.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns how many moves deep the searches have looked, at most.
+	 */
+	public int getDepth() {
+		return deepest;
+	}
+
+	/**
+	 * Returns how many positions had threats tried in them.
+	 */
+	public long getExpanded() {
+		return expanded;
+	}
+
+	/**
+	 * Returns how many of those were left early because a threat won.
+	 */
+	public long getCutoffs() {
+		return cutoffs;
+	}
+
+	/**
+	 * Returns how many times a position was looked up among the failed ones.
+	 */
+	public long getProbes() {
+		return probes;
+	}
+
+	/**
+	 * Returns how many of those lookups showed it had failed before.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the open cells where the given player would make a threat:
+	 * both open squares of every row holding two of the player's pieces
+	 * and none of the opponent's.
+	 */
+	static long threatCells(BitBoard b, Player p) {
+		long own = b.getPieces(p);
+		long other = b.getOccupied() & ~own;
+		long result = 0;
+		for (int i = 0; i < BitBoard.LINE_COUNT; i++) {
+			long mask = BitBoard.getLine(i);
+			if ((other & mask) == 0 && Long.bitCount(own & mask) == 2)
+				result |= mask & ~own;
+		}
+		return result;
+	}
+
+	/**
+	 * The player to move attacks.
+	 * @return the winning move, or -1
+	 */
+	private int attack(int depth) {
+		nodes++;
+		deepest = Math.max(deepest, level);
+		Player attacker = b.getCurrentPlayer();
+		Player defender = b.getOpponent(attacker);
+		long open = b.getOpenCells();
+		long wins = b.getWinningCells(attacker) & open;
+		if (wins != 0)
+			return Long.numberOfTrailingZeros(wins);
+		if (depth == 0)
+			return -1;
+		long key = b.getKey();
+		Integer failedDepth = failed.get(key);
+		probes++;
+		if (failedDepth != null && failedDepth >= depth) {
+			hits++;
+			return -1;
+		}
+
+		long candidates = threatCells(b, attacker) & open;
+		long blocks = b.getWinningCells(defender) & open;
+		if (Long.bitCount(blocks) > 1)
+			candidates = 0;
+		else if (blocks != 0)
+			candidates &= blocks; // Blocking is forced, so it has to be a threat too.
+
+		if (candidates != 0)
+			expanded++;
+		for (; candidates != 0; candidates &= candidates - 1) {
+			int cell = Long.numberOfTrailingZeros(candidates);
+			b.make(cell);
+			long threats = b.getWinningCells(attacker) & b.getOpenCells();
+			boolean won;
+			if (Long.bitCount(threats) > 1) {
+				won = true; // Two threats at once can't both be blocked.
+			} else {
+				b.make(Long.numberOfTrailingZeros(threats));
+				level += 2;
+				won = attack(depth - 1) >= 0;
+				level -= 2;
+				b.unmake();
+			}
+			b.unmake();
+			if (won) {
+				cutoffs++;
+				return cell;
+			}
+		}
+		failed.put(key, depth);
+		return -1;
+	}
+}
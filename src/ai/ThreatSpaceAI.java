@@ -0,0 +1,80 @@
+package ai;
+
+import java.util.logging.Logger;
+
+import model.BitBoard;
+import model.QubicBoard;
+import model.Square;
+
+/**
+ * An AI built on ThreatSearch alone.  It plays a forced win when it can
+ * find one, otherwise the best scored move that leaves the opponent
+ * without a forced win of their own.
+ * @author John Thomson
+ */
+public class ThreatSpaceAI implements MeasuredAI {
+	private static final Logger LOG = Logger.getLogger(ThreatSpaceAI.class.getName());
+	private QubicBoard board;
+	private int depth;
+	private Evaluator evaluator;
+	private SearchResult lastResult;
+
+	public ThreatSpaceAI(QubicBoard board) {
+		this(board, ThreatSearch.DEFAULT_DEPTH);
+	}
+
+	/**
+	 * Constructs a ThreatSpaceAI that looks at most the given number of
+	 * threats ahead.
+	 * @param board
+	 * @param depth
+	 */
+	public ThreatSpaceAI(QubicBoard board, int depth) {
+		this.board = board;
+		this.depth = depth;
+		evaluator = new Evaluator(Weights.EXPERT);
+	}
+
+	public Square go() {
+		return go(board);
+	}
+
+	public Square go(QubicBoard position) {
+		long startTime = System.currentTimeMillis();
+		BitBoard b = new BitBoard(position);
+		ThreatSearch search = new ThreatSearch();
+		Square move = position.getSquare(choose(b, search));
+		lastResult = new SearchResult(move, search.getDepth(), search.getNodes(),
+				System.currentTimeMillis() - startTime, true, search.getExpanded(), search.getCutoffs(),
+				search.getProbes(), search.getHits());
+		return move;
+	}
+
+	private int choose(BitBoard b, ThreatSearch search) {
+		int win = search.win(b, depth);
+		if (win >= 0) {
+			LOG.fine("Threat search found a forced win.");
+			return win;
+		}
+		long safe = search.defences(b, depth);
+		if (safe == 0)
+			safe = b.getOpenCells(); // Lost anyway, play on.
+
+		evaluator.reset(b);
+		int[] moves = new int[BitBoard.CELLS];
+		int count = evaluator.order(b.getCurrentPlayer(), moves, new int[BitBoard.CELLS]);
+		for (int i = 0; i < count; i++) {
+			if ((safe & (1L << moves[i])) != 0)
+				return moves[i];
+		}
+		return moves[0];
+	}
+
+	public SearchResult getLastResult() {
+		return lastResult;
+	}
+
+	public String toString() {
+		return "Threats";
+	}
+}
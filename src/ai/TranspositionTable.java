@@ -0,0 +1,140 @@
+package ai;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed size hash table of search results, keyed by Zobrist position
+ * keys.  It lives in a direct ByteBuffer outside the Java heap, so it can
+ * be made as large as the machine allows without slowing down garbage
+ * collection, and its size never changes after it is made.
+ *
+ * The table is split into buckets of two 16 byte entries.  The first
+ * entry of a bucket keeps the result with the greatest depth, the second
+ * always takes the newest result, so deep results survive while shallow
+ * ones still get cached.
+ *
+ * Several threads can use one table without locking.  Each entry is
+ * written as the data word and the key XOR the data word; a probe only
+ * accepts an entry whose two words agree with the key, so an entry torn
+ * by two threads writing at once just reads as a miss.
+ *
+ * An entry comes back as one long, read with score(), move(), depth()
+ * and bound().
+ * @author John Thomson
+ */
+public class TranspositionTable {
+	/** The score is exact. */
+	public static final int EXACT = 0;
+	/** The score is at least the stored value (the search failed high). */
+	public static final int LOWER = 1;
+	/** The score is at most the stored value (the search failed low). */
+	public static final int UPPER = 2;
+
+	/** Returned by probe when the position isn't in the table. */
+	public static final long MISS = 0;
+	/** Returned by move() when no move was stored. */
+	public static final int NO_MOVE = -1;
+
+	private static final int ENTRY_BYTES = 16;
+	private static final int BUCKET_BYTES = 2 * ENTRY_BYTES;
+	private static final long VALID = 1L << 63;
+
+	private final ByteBuffer buffer;
+	private final long bucketMask;
+	private final int megabytes;
+
+	/**
+	 * Constructs an empty table using about the given number of
+	 * megabytes, rounded down to a power of two.
+	 * @param megabytes
+	 */
+	public TranspositionTable(int megabytes) {
+		if (megabytes < 1 || megabytes > 1024)
+			throw new IllegalArgumentException("Table size must be from 1 to 1024 MB, not " + megabytes);
+		long bytes = Long.highestOneBit((long) megabytes << 20);
+		this.megabytes = (int) (bytes >> 20);
+		buffer = ByteBuffer.allocateDirect((int) bytes);
+		bucketMask = bytes / BUCKET_BYTES - 1;
+	}
+
+	/**
+	 * Looks up a position.
+	 * @param key The position's Zobrist key
+	 * @return the entry, or MISS
+	 */
+	public long probe(long key) {
+		int bucket = (int) ((key & bucketMask) * BUCKET_BYTES);
+		for (int offset = bucket; offset < bucket + BUCKET_BYTES; offset += ENTRY_BYTES) {
+			long data = buffer.getLong(offset + 8);
+			if ((buffer.getLong(offset) ^ data) == key && data != MISS)
+				return data;
+		}
+		return MISS;
+	}
+
+	/**
+	 * Stores a search result.
+	 * @param key The position's Zobrist key
+	 * @param depth How deep the position was searched, from 0 to 255
+	 * @param bound EXACT, LOWER or UPPER
+	 * @param score
+	 * @param move The best move found, or NO_MOVE
+	 */
+	public void store(long key, int depth, int bound, int score, int move) {
+		long data = VALID
+				| ((long) (bound & 3) << 48)
+				| ((long) (depth & 0xff) << 40)
+				| ((long) (move & 0xff) << 32)
+				| (score & 0xffffffffL);
+		int bucket = (int) ((key & bucketMask) * BUCKET_BYTES);
+		int offset = bucket + ENTRY_BYTES;
+		long deepData = buffer.getLong(bucket + 8);
+		boolean sameKey = (buffer.getLong(bucket) ^ deepData) == key;
+		if (deepData == MISS || depth >= depth(deepData) || sameKey)
+			offset = bucket;
+		buffer.putLong(offset, key ^ data);
+		buffer.putLong(offset + 8, data);
+	}
+
+	/**
+	 * Empties the table.
+	 */
+	public void clear() {
+		for (int offset = 0; offset < buffer.capacity(); offset += 8)
+			buffer.putLong(offset, 0);
+	}
+
+	/**
+	 * Returns the number of entries the table can hold.
+	 */
+	public long getCapacity() {
+		return (bucketMask + 1) * 2;
+	}
+
+	/**
+	 * Returns the size of the table in megabytes.
+	 */
+	public int getMegabytes() {
+		return megabytes;
+	}
+
+	public static int score(long entry) {
+		return (int) entry;
+	}
+
+	/**
+	 * Returns the stored move, or NO_MOVE.
+	 */
+	public static int move(long entry) {
+		int move = (int) (entry >>> 32) & 0xff;
+		return move == 0xff ? NO_MOVE : move;
+	}
+
+	public static int depth(long entry) {
+		return (int) (entry >>> 40) & 0xff;
+	}
+
+	public static int bound(long entry) {
+		return (int) (entry >>> 48) & 3;
+	}
+}
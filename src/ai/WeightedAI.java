@@ -0,0 +1,20 @@
+package ai;
+
+/**
+ * An AI whose play is steered by a Weights profile, which can be swapped
+ * for another one, as the weight tuner does to play profiles against each
+ * other.
+ * @author John Thomson
+ */
+public interface WeightedAI extends QubicAI {
+	/**
+	 * Returns the row weights the AI plays with.
+	 */
+	public Weights getWeights();
+
+	/**
+	 * Makes the AI play with other row weights from its next move on.
+	 * @param weights
+	 */
+	public void setWeights(Weights weights);
+}
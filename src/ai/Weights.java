@@ -0,0 +1,241 @@
+package ai;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * A set of row weights for the Evaluator.  A row's value to a player
+ * depends only on how many of its squares the player holds and how many
+ * the opponent holds, so a profile is kept as a table indexed by those two
+ * counts, built once when the profile is made.
+ *
+ * There is one profile per difficulty.  The built in ones differ only in
+ * the value of two in a row, which the Hard AI weighs double.  MasterAI,
+ * ThreatSpaceAI and PerfectAI's solver order their moves with the built
+ * in Expert profile.
+ *
+ * Profiles written by the weight tuner are read when the class is loaded,
+ * from the file named by the qubic.weights system property
+ * (weights.properties by default), and take the place of the built in
+ * profiles of the same name.
+ * @author John Thomson
+ */
+public class Weights {
+	private static final Logger LOG = Logger.getLogger(Weights.class.getName());
+	public static final Weights EASY = new Weights("Easy", -1, 1, 2, 10, 4000, 50000);
+	public static final Weights HARD = new Weights("Hard", -1, 1, 2, 20, 4000, 50000);
+	public static final Weights EXPERT = new Weights("Expert", -1, 1, 2, 10, 4000, 50000);
+
+	/** Counts run from 0 to 4, so a row's entry is own * SIZE + other. */
+	static final int SIZE = 5;
+
+	private static final Map<String, Weights> TUNED = readTuned();
+
+	private String name;
+	private int mixed;
+	private int empty;
+	private int single;
+	private int pair;
+	private int block;
+	private int win;
+	private int[] table;
+
+	/**
+	 * Constructs a profile.  Rows that aren't listed, like three of the
+	 * opponent's squares, are worth nothing.
+	 * @param name
+	 * @param mixed A row both players hold squares in
+	 * @param empty A row nobody holds a square in
+	 * @param single A row holding one of the player's squares
+	 * @param pair A row holding two of the player's squares
+	 * @param block A row holding three of the opponent's squares
+	 * @param win A row holding three of the player's squares
+	 */
+	public Weights(String name, int mixed, int empty, int single, int pair, int block, int win) {
+		this.name = name;
+		this.mixed = mixed;
+		this.empty = empty;
+		this.single = single;
+		this.pair = pair;
+		this.block = block;
+		this.win = win;
+		table = new int[SIZE * SIZE];
+		for (int own = 0; own < SIZE; own++) {
+			for (int other = 0; other < SIZE; other++)
+				table[own * SIZE + other] = compute(own, other);
+		}
+	}
+
+	private int compute(int own, int other) {
+		if (own > 0 && other > 0)
+			return mixed;
+		else if (own == 3)
+			return win;
+		else if (other == 3)
+			return block;
+		else if (own == 2)
+			return pair;
+		else if (own == 1)
+			return single;
+		else if (own == 0 && other == 0)
+			return empty;
+		return 0;
+	}
+
+	/**
+	 * Returns the profile for the AI with the given name (Easy, Hard or
+	 * Expert): the tuned one if there is one, otherwise the built in one.
+	 * Any other name gets the Expert profile.
+	 * @param name
+	 */
+	public static Weights forAI(String name) {
+		if (TUNED.containsKey(name))
+			return TUNED.get(name);
+		else if (name.equals(EASY.name))
+			return EASY;
+		else if (name.equals(HARD.name))
+			return HARD;
+		return EXPERT;
+	}
+
+	/**
+	 * Returns the value of a row to a player holding own of its squares,
+	 * when the opponent holds other.
+	 * @param own
+	 * @param other
+	 */
+	public int getValue(int own, int other) {
+		return table[own * SIZE + other];
+	}
+
+	/**
+	 * Returns the whole table, indexed by own * SIZE + other.  The array
+	 * is shared, don't change it.
+	 */
+	int[] getTable() {
+		return table;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMixed() {
+		return mixed;
+	}
+
+	public int getEmpty() {
+		return empty;
+	}
+
+	public int getSingle() {
+		return single;
+	}
+
+	public int getPair() {
+		return pair;
+	}
+
+	public int getBlock() {
+		return block;
+	}
+
+	public int getWin() {
+		return win;
+	}
+
+	/**
+	 * Reads the profiles in the given file, by name.
+	 * @param file
+	 * @throws IOException if the file can't be read or holds a bad profile
+	 */
+	public static Map<String, Weights> read(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		Map<String, Weights> profiles = new HashMap<String, Weights>();
+		for (String key : properties.stringPropertyNames()) {
+			if (!key.endsWith(".pair"))
+				continue;
+			String name = key.substring(0, key.length() - ".pair".length());
+			try {
+				profiles.put(name, new Weights(name, value(properties, name, "mixed"),
+						value(properties, name, "empty"), value(properties, name, "single"),
+						value(properties, name, "pair"), value(properties, name, "block"),
+						value(properties, name, "win")));
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad weight in the " + name + " profile: " + e.getMessage());
+			}
+		}
+		return profiles;
+	}
+
+	private static int value(Properties properties, String name, String weight) throws IOException {
+		String value = properties.getProperty(name + "." + weight);
+		if (value == null)
+			throw new IOException("The " + name + " profile has no " + weight + " weight");
+		return Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * Writes the given profiles to a file, which read can load again.
+	 * @param file
+	 * @param profiles
+	 * @param comment A line for the top of the file, or null
+	 * @throws IOException
+	 */
+	public static void write(File file, Collection<Weights> profiles, String comment) throws IOException {
+		Properties properties = new Properties();
+		for (Weights w : profiles) {
+			properties.setProperty(w.name + ".mixed", "" + w.mixed);
+			properties.setProperty(w.name + ".empty", "" + w.empty);
+			properties.setProperty(w.name + ".single", "" + w.single);
+			properties.setProperty(w.name + ".pair", "" + w.pair);
+			properties.setProperty(w.name + ".block", "" + w.block);
+			properties.setProperty(w.name + ".win", "" + w.win);
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			properties.store(out, comment);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the file tuned profiles are read from.
+	 */
+	public static File getTunedFile() {
+		return new File(System.getProperty("qubic.weights", "weights.properties"));
+	}
+
+	private static Map<String, Weights> readTuned() {
+		File file = getTunedFile();
+		if (file.exists()) {
+			try {
+				return read(file);
+			} catch (IOException e) {
+				LOG.warning("Could not read the weights " + file + ": " + e.getMessage());
+			}
+		}
+		return new HashMap<String, Weights>();
+	}
+
+	public String toString() {
+		return name + " (mixed " + mixed + ", empty " + empty + ", single " + single + ", pair " + pair
+				+ ", block " + block + ", win " + win + ")";
+	}
+}
@@ -212,6 +212,7 @@ class ActionController extends SimpleController {
 		}
 		
 		public void actionPerformed(ActionEvent e) {
+			cancelComputerMove();
 			if (getBoard().canUndo()) {				
 				System.out.println("undoing...");
 				getBoard().undo();
@@ -234,6 +235,15 @@ class ActionController extends SimpleController {
 	void handleUndo() {
 	}
 	
+	/**
+	 * Overridden later in GameController, to stop the computer thinking
+	 * (or pondering) before the board is changed under it.
+	 * @return true if the computer was thinking
+	 */
+	boolean cancelComputerMove() {
+		return false;
+	}
+	
 	/**
 	 * An action to change the computer's difficulty. Calls an external method,
 	 * handleChangeAI(), which is overridden later.
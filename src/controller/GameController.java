@@ -1,13 +1,21 @@
 package controller;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.JOptionPane;
-import javax.swing.Timer;
+import javax.swing.SwingUtilities;
 
 import model.QubicBoard;
 import model.Square;
+import ai.PonderingAI;
+import ai.QubicAI;
+import ai.SearchBudget;
+import ai.SearchMonitor;
 
 /**
  * This is the final class in the inheritance chain of controllers, so it is
@@ -17,7 +25,25 @@ import model.Square;
  * @author Blake
  */
 public final class GameController extends ViewController {	
+	/**
+	 * How long the computer may think about a move, from the qubic.moveMillis
+	 * system property (3 seconds by default). AIs that can't be given a
+	 * budget take as long as they take.
+	 */
+	private static final SearchBudget MOVE_BUDGET = SearchBudget.time(Long.getLong("qubic.moveMillis", 3000));
 	private boolean clickOkay;
+	/**
+	 * The computer thinks on this thread, so the Swing event thread stays free
+	 * while it does.
+	 */
+	private final ExecutorService aiThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Qubic AI");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private ComputerMove pendingMove;
 	
 	/**
 	 * Calls the super-class constructor.
@@ -35,7 +61,7 @@ public final class GameController extends ViewController {
 	public void start() {
 		getFrame().setVisible(true);
 		if (getBoard().getFirstPlayer() == QubicBoard.Player.COMPUTER) {
-			computerMove(getBoard().getFirstAI().go());
+			computerMove(getBoard().getFirstAI());
 		}
 	}
 		
@@ -50,17 +76,17 @@ public final class GameController extends ViewController {
 		if (!clickOkay)
 			return;
 		handleMove(s);
+		if (getBoard().gameOver() || getBoard().catsGame())
+			return;
 		clickOkay = false;
 		if (getBoard().getCurrentPlayer() == getBoard().getFirstPlayer()) {
 			if (getBoard().getFirstPlayer() == QubicBoard.Player.COMPUTER) {
-				Square s2 = getBoard().getFirstAI().go();
-				computerMove(s2);
+				computerMove(getBoard().getFirstAI());
 			} else
 				clickOkay = true;
 		} else {
 			if (getBoard().getSecondPlayer() == QubicBoard.Player.COMPUTER) {
-				Square s2 = getBoard().getSecondAI().go();
-				computerMove(s2);
+				computerMove(getBoard().getSecondAI());
 			} else
 				clickOkay = true;
 		}
@@ -77,20 +103,105 @@ public final class GameController extends ViewController {
 		clickOkay = !handleGameOver();
 	}
 	
-	void computerMove(Square s) {
-		final Square sFinal = s;
+	/**
+	 * Asks the AI for its move in the position, within MOVE_BUDGET if it
+	 * supports budgets, and records its search with the SearchMonitor.
+	 */
+	Square think(QubicAI ai, QubicBoard position) {
+		return SearchMonitor.think(ai, position, MOVE_BUDGET).getMove();
+	}
+	
+	/**
+	 * Starts the AI thinking on the AI thread, about a snapshot of the board
+	 * taken here on the event thread, so the board can change while it
+	 * thinks. The move is made on the event thread once it is found, unless
+	 * the search has been cancelled by then. Undo stays off until then, since
+	 * it would take back the human's move with the computer still to reply.
+	 */
+	void computerMove(final QubicAI ai) {
+		cancelPendingMove(); // Pondering carries on, the AI decides in go() whether it was useful.
+		getProgressBar().setIndeterminate(true);
+		getUndoAction().setEnabled(false);
+		pendingMove = new ComputerMove(ai, getBoard().snapshot());
+		aiThread.execute(pendingMove);
+	}
+	
+	/**
+	 * Stops the computer's search, if it is thinking, and throws its move away.
+	 * Pondering is stopped too.
+	 * @return true if a search was cancelled
+	 */
+	@Override
+	boolean cancelComputerMove() {
+		stopPondering();
+		return cancelPendingMove();
+	}
+	
+	private boolean cancelPendingMove() {
+		if (pendingMove == null)
+			return false;
+		pendingMove.cancel(true);
+		pendingMove = null;
+		getProgressBar().setIndeterminate(false);
 		getProgressBar().setValue(0);
-		final Timer t = new Timer(100, null);
-		t.addActionListener(new ActionListener() {
-			public void actionPerformed(ActionEvent e) {
-				getProgressBar().setValue(getProgressBar().getValue() + 10);
-				if (getProgressBar().getValue() == 100) {
-					t.stop();
-					handleMove(sFinal);
+		return true;
+	}
+	
+	/**
+	 * Plays the move of a finished search, if it is still the one the game is
+	 * waiting for.
+	 */
+	private void finishComputerMove(ComputerMove move) {
+		if (move != pendingMove || move.isCancelled())
+			return;
+		pendingMove = null;
+		getProgressBar().setIndeterminate(false);
+		getProgressBar().setValue(100);
+		try {
+			handleMove(move.get());
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		if (move.ai instanceof PonderingAI && clickOkay
+				&& getBoard().getCurrentPlayer() == QubicBoard.Player.HUMAN)
+			((PonderingAI) move.ai).startPondering();
+	}
+	
+	/**
+	 * Stops any AI that is thinking on the human's time.
+	 */
+	private void stopPondering() {
+		for (QubicAI ai : new QubicAI[] {getBoard().getFirstAI(), getBoard().getSecondAI()}) {
+			if (ai instanceof PonderingAI)
+				((PonderingAI) ai).stopPondering();
+		}
+	}
+	
+	/**
+	 * One search for a computer move, run on the AI thread.
+	 */
+	private class ComputerMove extends FutureTask<Square> {
+		private final QubicAI ai;
+		
+		ComputerMove(final QubicAI ai, final QubicBoard position) {
+			super(new Callable<Square>() {
+				public Square call() {
+					return think(ai, position);
 				}
-			}
-		});
-		t.start();
+			});
+			this.ai = ai;
+		}
+		
+		@Override
+		protected void done() {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					finishComputerMove(ComputerMove.this);
+				}
+			});
+		}
 	}
 	
 	/**
@@ -131,11 +242,28 @@ public final class GameController extends ViewController {
 	 */
 	@Override
 	void handleNewGame() {
+		cancelComputerMove();
 		getBoard().resetBoard();
 		getHistoryPanel().clearHistory();
 		start();
 	}
 	
+	/**
+	 * Cancels the computer's search while the user decides whether to leave,
+	 * and starts it again if they stay.
+	 */
+	@Override
+	void handleConfirmSave() {
+		if (cancelComputerMove()) {
+			super.handleConfirmSave();
+			if (getBoard().getCurrentPlayer() == getBoard().getFirstPlayer())
+				computerMove(getBoard().getFirstAI());
+			else
+				computerMove(getBoard().getSecondAI());
+		} else
+			super.handleConfirmSave();
+	}
+	
 	/**
 	 * The helper method used by the undo action object to update the
 	 * history panel by removing the last line of output. It is called twice
@@ -153,9 +281,12 @@ public final class GameController extends ViewController {
 	 */
 	@Override
 	void handleNewBoard(QubicBoard b) {
+		if (cancelComputerMove())
+			clickOkay = true; // As it was before the computer started thinking.
 		setBoard(b);
 		getBoard().addListener(getMainView());
 		getBoard().addListener(get3DView());
 		getBoard().addListener(getHistoryPanel());
+		getUndoAction().setEnabled(getBoard().canUndo());
 	}
 }
@@ -95,6 +95,10 @@ public class OptionsDialog {
 			JRadioButton c2But = createRadioButton("Computer: Easy", false);
 			JRadioButton c3But = createRadioButton("Computer: Hard", false);
 			JRadioButton c4But = createRadioButton("Computer: Expert", false);
+			JRadioButton c5But = createRadioButton("Computer: Master", false);
+			JRadioButton c6But = createRadioButton("Computer: Threats", false);
+			JRadioButton c7But = createRadioButton("Computer: Perfect", false);
+			JRadioButton c8But = createRadioButton("Computer: Monte Carlo", false);
 			
 			if (first) {
 				if (board.getFirstPlayer() == QubicBoard.Player.HUMAN)
@@ -109,6 +113,14 @@ public class OptionsDialog {
 						c3But.setSelected(true);
 					else if (aiName.equals("Expert"))
 						c4But.setSelected(true);
+					else if (aiName.equals("Master"))
+						c5But.setSelected(true);
+					else if (aiName.equals("Threats"))
+						c6But.setSelected(true);
+					else if (aiName.equals("Perfect"))
+						c7But.setSelected(true);
+					else if (aiName.equals("Monte Carlo"))
+						c8But.setSelected(true);
 				}
 			}
 		}
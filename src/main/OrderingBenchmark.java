@@ -0,0 +1,53 @@
+package main;
+
+import java.util.List;
+
+import model.QubicBoard;
+import ai.ExpertAI;
+import ai.SearchBudget;
+
+/**
+ * Measures how many positions ExpertAI searches with and without its
+ * killer move and history ordering, on the same fixed positions as
+ * SearchBenchmark.  Possibility breaks ties at random, so every position
+ * is searched a few times and the counts are added up.
+ *
+ * Usage: OrderingBenchmark [runs per position]
+ * @author John Thomson
+ */
+public class OrderingBenchmark {
+	public static void main(String[] args) {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		List<QubicBoard> positions = SearchBenchmark.makePositions();
+		System.out.println("position\tplain\t\tordered\t\treduction");
+		long plainTotal = 0;
+		long orderedTotal = 0;
+		for (int i = 0; i < positions.size(); i++) {
+			long plain = search(positions.get(i), false, runs);
+			long ordered = search(positions.get(i), true, runs);
+			plainTotal += plain;
+			orderedTotal += ordered;
+			System.out.printf("%d\t\t%d\t\t%d\t\t%.1f%%%n", i, plain, ordered, reduction(plain, ordered));
+		}
+		System.out.printf("total\t\t%d\t\t%d\t\t%.1f%%%n", plainTotal, orderedTotal,
+				reduction(plainTotal, orderedTotal));
+	}
+
+	/**
+	 * Searches the position the given number of times.
+	 * @return the number of positions searched in all
+	 */
+	static long search(QubicBoard position, boolean ordering, int runs) {
+		long nodes = 0;
+		for (int r = 0; r < runs; r++) {
+			ExpertAI ai = new ExpertAI(position);
+			ai.setMoveOrdering(ordering);
+			nodes += ai.go(SearchBudget.UNLIMITED).getNodes();
+		}
+		return nodes;
+	}
+
+	private static double reduction(long plain, long ordered) {
+		return 100.0 * (plain - ordered) / Math.max(1, plain);
+	}
+}
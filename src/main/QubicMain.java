@@ -7,9 +7,13 @@ import controller.GameController;
 public class QubicMain {
 
 	/**
-	 * @param args
+	 * Builds a new, empty board from the row and square files in the
+	 * resources folder.
+	 * @param first The player that moves first
+	 * @param second The player that moves second
+	 * @return board
 	 */
-	public static void main(String[] args) {
+	public static QubicBoard newBoard(QubicBoard.Player first, QubicBoard.Player second) {
 		Scanner input = new Scanner("");
 		Scanner input2 = new Scanner("");
 		try {
@@ -19,7 +23,14 @@ public class QubicMain {
 			System.out.println("File not found");
 			throw new RuntimeException(e);
 		}
-		QubicBoard q = new QubicBoard(QubicBoard.Player.COMPUTER, QubicBoard.Player.HUMAN, input, input2);
+		return new QubicBoard(first, second, input, input2);
+	}
+	
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		QubicBoard q = newBoard(QubicBoard.Player.COMPUTER, QubicBoard.Player.HUMAN);
 		
 		GameController c = new GameController(q);
 		c.start();
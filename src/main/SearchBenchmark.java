@@ -0,0 +1,101 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import model.BitBoard;
+import model.QubicBoard;
+import ai.MasterAI;
+import ai.TranspositionTable;
+
+/**
+ * Measures how much faster the MasterAI search gets with more threads.
+ * Every thread count searches the same fixed set of positions to the same
+ * depth, each run with a fresh table, and the time taken is compared with
+ * the single threaded run.
+ *
+ * Usage: SearchBenchmark [depth] [thread counts...]
+ * e.g. SearchBenchmark 6 1 2 4 8 16 32
+ * @author John Thomson
+ */
+public class SearchBenchmark {
+	private static final int POSITIONS = 8;
+	private static final int OPENING_MOVES = 6;
+	private static final long SEED = 2007;
+	private static final int TABLE_SIZE = 64;
+
+	public static void main(String[] args) {
+		int depth = 6;
+		List<Integer> threadCounts = new ArrayList<Integer>();
+		if (args.length > 0)
+			depth = Integer.parseInt(args[0]);
+		for (int i = 1; i < args.length; i++)
+			threadCounts.add(Integer.parseInt(args[i]));
+		if (threadCounts.isEmpty()) {
+			int cores = Runtime.getRuntime().availableProcessors();
+			for (int t = 1; t < cores; t *= 2)
+				threadCounts.add(t);
+			threadCounts.add(cores);
+		}
+
+		List<QubicBoard> positions = makePositions();
+		// One untimed pass, so the JIT has compiled the search before timing starts.
+		search(positions, depth, 1);
+		System.out.println("Searching " + positions.size() + " positions to depth " + depth);
+		System.out.println("threads\ttime (ms)\tpositions\tpositions/s\tspeedup");
+		long baseTime = 0;
+		for (int threads : threadCounts) {
+			long start = System.nanoTime();
+			long nodes = search(positions, depth, threads);
+			long time = Math.max(1, (System.nanoTime() - start) / 1000000);
+			if (baseTime == 0)
+				baseTime = time;
+			System.out.printf("%d\t%d\t\t%d\t%d\t\t%.2f%n", threads, time, nodes,
+					nodes * 1000 / time, (double) baseTime / time);
+		}
+	}
+
+	/**
+	 * Searches every position to the given depth.
+	 * @return the number of positions searched
+	 */
+	static long search(List<QubicBoard> positions, int depth, int threads) {
+		long nodes = 0;
+		for (QubicBoard position : positions) {
+			MasterAI ai = new MasterAI(position, Long.MAX_VALUE / 2,
+					new TranspositionTable(TABLE_SIZE), threads);
+			ai.setDepthLimit(depth);
+			ai.go();
+			ai.shutdown();
+			nodes += ai.getLastNodes();
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Builds the fixed set of test positions: a few random moves from the
+	 * empty board, avoiding any position where someone has three in a row.
+	 */
+	static List<QubicBoard> makePositions() {
+		Random r = new Random(SEED);
+		List<QubicBoard> positions = new ArrayList<QubicBoard>();
+		while (positions.size() < POSITIONS) {
+			BitBoard b = new BitBoard(QubicBoard.Player.COMPUTER, QubicBoard.Player.HUMAN);
+			while (b.getMoveCount() < OPENING_MOVES) {
+				int cell;
+				do {
+					cell = r.nextInt(BitBoard.CELLS);
+				} while ((b.getOccupied() & (1L << cell)) != 0);
+				b.make(cell);
+			}
+			if (b.getWinningCells(QubicBoard.Player.COMPUTER) != 0
+					|| b.getWinningCells(QubicBoard.Player.HUMAN) != 0)
+				continue;
+			QubicBoard board = QubicMain.newBoard(QubicBoard.Player.COMPUTER, QubicBoard.Player.HUMAN);
+			b.applyTo(board);
+			positions.add(board);
+		}
+		return positions;
+	}
+}
@@ -0,0 +1,54 @@
+package main;
+
+import model.BitBoard;
+import model.QubicBoard;
+import ai.ProofNumberSolver;
+
+/**
+ * Solves a few positions whose results are known and reports any the
+ * ProofNumberSolver gets wrong, as a quick check after changing it.  The
+ * positions are given as the cells played in order, first player first,
+ * and are solved for the player to move.  Exits with status 1 if any
+ * result is wrong.
+ *
+ * Usage: SolverCheck
+ * @author John Thomson
+ */
+public class SolverCheck {
+	private static final int TABLE_SIZE = 16;
+	private static final long NODE_LIMIT = 100000;
+
+	private static final int[][] POSITIONS = {
+			// The player to move has an open three.
+			{0, 16, 1, 32, 2, 48},
+			// The player to move faces two open threes and has none.
+			{16, 0, 32, 1, 5, 2, 6, 4, 9, 8},
+			// The player to move has to block at 0, which makes two open
+			// threes (0 1 2 and 0 4 8) the opponent can't both block.
+			{1, 16, 2, 32, 4, 48, 8, 63},
+	};
+	private static final ProofNumberSolver.Result[] EXPECTED = {
+			ProofNumberSolver.Result.PROVEN,
+			ProofNumberSolver.Result.DISPROVEN,
+			ProofNumberSolver.Result.PROVEN,
+	};
+
+	public static void main(String[] args) {
+		ProofNumberSolver solver = new ProofNumberSolver(TABLE_SIZE);
+		int wrong = 0;
+		for (int i = 0; i < POSITIONS.length; i++) {
+			BitBoard b = new BitBoard(QubicBoard.Player.COMPUTER, QubicBoard.Player.HUMAN);
+			for (int cell : POSITIONS[i])
+				b.make(cell);
+			ProofNumberSolver.Result result = solver.solve(b, NODE_LIMIT);
+			boolean right = result == EXPECTED[i];
+			if (!right)
+				wrong++;
+			System.out.println("Position " + (i + 1) + ": " + result + " in " + solver.getNodes() + " positions, "
+					+ (right ? "right" : "expected " + EXPECTED[i]));
+		}
+		System.out.println(wrong == 0 ? "All positions solved right." : wrong + " positions solved wrong.");
+		if (wrong > 0)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,48 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import model.BitBoard;
+import model.QubicBoard;
+import ai.ProofNumberSolver;
+import ai.StrategyBook;
+
+/**
+ * Solves a position offline and writes its winning strategy as a
+ * StrategyBook file for PerfectAI to play from.
+ *
+ * Usage: StrategyBuilder file [node limit] [cells of the opening moves...]
+ * e.g. StrategyBuilder strategy.dat 100000000 0 21 42
+ * @author John Thomson
+ */
+public class StrategyBuilder {
+	private static final int TABLE_SIZE = 512;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: StrategyBuilder file [node limit] [cells of the opening moves...]");
+			return;
+		}
+		File file = new File(args[0]);
+		long nodeLimit = args.length > 1 ? Long.parseLong(args[1]) : 100000000L;
+		BitBoard b = new BitBoard(QubicBoard.Player.COMPUTER, QubicBoard.Player.HUMAN);
+		for (int i = 2; i < args.length; i++)
+			b.make(Integer.parseInt(args[i]));
+
+		long start = System.currentTimeMillis();
+		Map<Long, Integer> moves = StrategyBook.build(b, new ProofNumberSolver(TABLE_SIZE), nodeLimit);
+		if (moves == null) {
+			System.out.println("Could not prove a win for the player to move.");
+			return;
+		}
+		StrategyBook.write(file, moves);
+		System.out.println("Wrote " + moves.size() + " positions to " + file + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		if (StrategyBook.open(file).verify(b))
+			System.out.println("Checked: the book wins against every defence.");
+		else
+			System.out.println("The book doesn't win against every defence, don't use it.");
+	}
+}
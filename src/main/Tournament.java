@@ -0,0 +1,322 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import model.QubicBoard;
+import model.Square;
+import model.QubicBoard.Player;
+import ai.QubicAI;
+import ai.SearchBudget;
+import ai.SearchMonitor;
+
+/**
+ * Plays AIs against each other without the GUI and reports how they did.
+ * Every pair of the named AIs plays the given number of games, taking
+ * turns at moving first, and the games are shared out between the given
+ * number of threads, each playing on boards of its own.
+ *
+ * The older AIs always play the computer's side, so every game is played
+ * on two boards holding the same position: on each board one of the AIs'
+ * pieces belong to the computer.  Each AI plays on its own board and
+ * every move is made on both.
+ *
+ * AIs are found by name among the ones QubicBoard registers (Simple, Easy,
+ * Hard, Expert, Master, Threats, Perfect, "Monte Carlo").  The budget is
+ * milliseconds per move, or positions per move when it ends in n; AIs
+ * that can't be given a budget ignore it.  Unless qubic.threads is set,
+ * the AIs search on one thread each, since the games already keep every
+ * core busy.  An AI that returns an illegal move or throws loses the game.
+ *
+ * Usage: Tournament games threads budget AI AI [more AIs...]
+ * e.g. Tournament 1000 8 200 Hard Expert Master
+ * @author John Thomson
+ */
+public class Tournament {
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		if (args.length < 5) {
+			System.out.println("Usage: Tournament games threads budget AI AI [more AIs...]");
+			return;
+		}
+		if (System.getProperty("qubic.threads") == null)
+			System.setProperty("qubic.threads", "1");
+		int games = Integer.parseInt(args[0]);
+		int threads = Integer.parseInt(args[1]);
+		SearchBudget budget = parseBudget(args[2]);
+		List<String> names = Arrays.asList(args).subList(3, args.length);
+		QubicBoard board = QubicMain.newBoard(Player.COMPUTER, Player.HUMAN);
+		for (String name : names) {
+			if (findAI(board, name) == null) {
+				System.out.println("There is no AI called " + name);
+				return;
+			}
+		}
+
+		System.out.println("Playing " + games + " games per pair on " + threads + " threads, "
+				+ args[2] + " per move");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.currentTimeMillis();
+		List<String[]> pairs = new ArrayList<String[]>();
+		List<List<Future<Record[]>>> results = new ArrayList<List<Future<Record[]>>>();
+		try {
+			// Even sized blocks, so both AIs move first equally often.
+			int block = Math.max(2, (games / threads + 1) & ~1);
+			for (int i = 0; i < names.size(); i++) {
+				for (int j = i + 1; j < names.size(); j++) {
+					List<Future<Record[]>> blocks = new ArrayList<Future<Record[]>>();
+					for (int first = 0; first < games; first += block)
+						blocks.add(pool.submit(new Match(names.get(i), names.get(j), first,
+								Math.min(block, games - first), budget)));
+					pairs.add(new String[] {names.get(i), names.get(j)});
+					results.add(blocks);
+				}
+			}
+
+			Map<String, Record> totals = new LinkedHashMap<String, Record>();
+			for (String name : names)
+				totals.put(name, new Record());
+			System.out.println("AI\t\tAI\t\twins\tdraws\tlosses\tscore\tElo");
+			for (int p = 0; p < pairs.size(); p++) {
+				Record first = new Record();
+				Record second = new Record();
+				for (Future<Record[]> f : results.get(p)) {
+					Record[] r = f.get();
+					first.add(r[0]);
+					second.add(r[1]);
+				}
+				totals.get(pairs.get(p)[0]).add(first);
+				totals.get(pairs.get(p)[1]).add(second);
+				System.out.printf("%-15s\t%-15s\t%d\t%d\t%d\t%.1f%%\t%s%n", pairs.get(p)[0], pairs.get(p)[1],
+						first.wins, first.draws, first.losses, 100 * first.score(), first.elo());
+			}
+			long time = Math.max(1, System.currentTimeMillis() - start);
+
+			System.out.println();
+			System.out.println("AI\t\tgames\twins\tdraws\tlosses\tforfeits\tscore\tElo\t\tms/move");
+			long played = 0;
+			for (Map.Entry<String, Record> e : totals.entrySet()) {
+				Record r = e.getValue();
+				played += r.games();
+				System.out.printf("%-15s\t%d\t%d\t%d\t%d\t%d\t\t%.1f%%\t%-15s\t%.2f%n", e.getKey(), r.games(),
+						r.wins, r.draws, r.losses, r.forfeits, 100 * r.score(), r.elo(),
+						r.moves == 0 ? 0 : r.nanos / 1e6 / r.moves);
+			}
+			played /= 2;
+			System.out.printf("%nPlayed %d games in %.1f s, %.1f games/s%n", played, time / 1000.0,
+					played * 1000.0 / time);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads a budget: milliseconds, or positions when it ends in n.
+	 */
+	static SearchBudget parseBudget(String budget) {
+		if (budget.endsWith("n"))
+			return SearchBudget.nodes(Long.parseLong(budget.substring(0, budget.length() - 1)));
+		return SearchBudget.time(Long.parseLong(budget));
+	}
+
+	/**
+	 * Returns the AI of the given name that plays on the board, or null.
+	 */
+	static QubicAI findAI(QubicBoard board, String name) {
+		QubicAI current = board.getFirstAI();
+		board.setFirstAI(name);
+		QubicAI ai = board.getFirstAI();
+		if (!ai.toString().equals(name)) {
+			board.setFirstAI(current.toString());
+			return null;
+		}
+		return ai;
+	}
+
+	/**
+	 * Asks the AI for a move, within the budget if it takes one.  The
+	 * SearchMonitor records every move, so the tournament can be watched
+	 * over JMX while it runs.
+	 */
+	static Square think(QubicAI ai, SearchBudget budget) {
+		return SearchMonitor.think(ai, budget).getMove();
+	}
+
+	/**
+	 * One block of games between two AIs, played on the thread that runs
+	 * it.  Returns each AI's record, the first named first.
+	 */
+	private static class Match implements Callable<Record[]> {
+		private String firstName;
+		private String secondName;
+		private int firstGame;
+		private int games;
+		private SearchBudget budget;
+
+		Match(String firstName, String secondName, int firstGame, int games, SearchBudget budget) {
+			this.firstName = firstName;
+			this.secondName = secondName;
+			this.firstGame = firstGame;
+			this.games = games;
+			this.budget = budget;
+		}
+
+		public Record[] call() {
+			QubicBoard[] boards = newBoards();
+			QubicAI[] ais = {findAI(boards[0], firstName), findAI(boards[1], secondName)};
+			Record[] records = {new Record(), new Record()};
+			for (int game = firstGame; game < firstGame + games; game++) {
+				// The first named AI moves first in even games.
+				startGame(boards, game % 2);
+				play(boards, ais, budget, records);
+			}
+			return records;
+		}
+	}
+
+	/**
+	 * Returns the pair of boards a game is played on.  On each board the
+	 * computer's pieces are those of the AI that plays on it.
+	 */
+	static QubicBoard[] newBoards() {
+		return new QubicBoard[] {
+				QubicMain.newBoard(Player.COMPUTER, Player.HUMAN),
+				QubicMain.newBoard(Player.COMPUTER, Player.HUMAN)};
+	}
+
+	/**
+	 * Clears both boards for a new game.
+	 * @param starter The side that moves first, 0 or 1
+	 */
+	static void startGame(QubicBoard[] boards, int starter) {
+		for (int side = 0; side < 2; side++) {
+			QubicBoard b = boards[side];
+			b.setFirstPlayer(side == starter ? Player.COMPUTER : Player.HUMAN);
+			b.setSecondPlayer(side == starter ? Player.HUMAN : Player.COMPUTER);
+			b.resetBoard();
+		}
+	}
+
+	/**
+	 * Plays one game on to the end from the boards' current position, with
+	 * ais[0] playing on boards[0] and ais[1] on boards[1], and adds it to
+	 * both sides' records.
+	 * @return the side that won, or -1 for a draw
+	 */
+	static int play(QubicBoard[] boards, QubicAI[] ais, SearchBudget budget, Record[] records) {
+		int winner = -1;
+		while (!boards[0].gameOver() && !boards[0].catsGame()) {
+			int side = boards[0].getCurrentPlayer() == Player.COMPUTER ? 0 : 1;
+			long start = System.nanoTime();
+			Square move;
+			try {
+				move = think(ais[side], budget);
+			} catch (RuntimeException e) {
+				move = null;
+			}
+			records[side].moves++;
+			records[side].nanos += System.nanoTime() - start;
+			if (move == null || !boards[0].select(move.getIndex())) {
+				records[side].forfeits++;
+				winner = 1 - side;
+				break;
+			}
+			boards[1].select(move.getIndex());
+		}
+		if (boards[0].gameOver())
+			winner = boards[0].getLastMove().getState() == Player.COMPUTER ? 0 : 1;
+		if (winner < 0) {
+			records[0].draws++;
+			records[1].draws++;
+		} else {
+			records[winner].wins++;
+			records[1 - winner].losses++;
+		}
+		return winner;
+	}
+
+	/**
+	 * One AI's results: its games, and the moves it made and the time
+	 * they took.
+	 */
+	static class Record {
+		int wins;
+		int draws;
+		int losses;
+		int forfeits;
+		long moves;
+		long nanos;
+
+		void add(Record other) {
+			wins += other.wins;
+			draws += other.draws;
+			losses += other.losses;
+			forfeits += other.forfeits;
+			moves += other.moves;
+			nanos += other.nanos;
+		}
+
+		int games() {
+			return wins + draws + losses;
+		}
+
+		/**
+		 * The share of the points won, a draw counting half.
+		 */
+		double score() {
+			return games() == 0 ? 0.5 : (wins + draws / 2.0) / games();
+		}
+
+		/**
+		 * The Elo difference to the opponents the score implies, with the
+		 * margin of a 95% confidence interval.
+		 */
+		String elo() {
+			if (games() == 0)
+				return "-";
+			if (score() <= 0)
+				return "-inf";
+			if (score() >= 1)
+				return "+inf";
+			return String.format("%+d +/- %d", Math.round(elo(score())), Math.round(margin()));
+		}
+
+		/**
+		 * The standard error of the score.
+		 */
+		double error() {
+			int n = games();
+			if (n == 0)
+				return 0;
+			double s = score();
+			double variance = (wins * (1 - s) * (1 - s) + draws * (0.5 - s) * (0.5 - s) + losses * s * s) / n;
+			return Math.sqrt(variance / n);
+		}
+
+		/**
+		 * Half the width of the 95% confidence interval of the Elo
+		 * difference.
+		 */
+		private double margin() {
+			double s = score();
+			double error = 1.96 * error();
+			double low = elo(Math.max(1e-6, s - error));
+			double high = elo(Math.min(1 - 1e-6, s + error));
+			return (high - low) / 2;
+		}
+
+		/**
+		 * The Elo difference a score implies.
+		 */
+		static double elo(double score) {
+			return -400 * Math.log10(1 / score - 1);
+		}
+	}
+}
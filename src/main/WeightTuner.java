@@ -0,0 +1,216 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import model.BitBoard;
+import model.QubicBoard;
+import model.QubicBoard.Player;
+import ai.QubicAI;
+import ai.SearchBudget;
+import ai.WeightedAI;
+import ai.Weights;
+
+/**
+ * Tunes the row weights of one of the weighted AIs (Easy, Hard or Expert)
+ * by having it play itself.  Each round a candidate profile is made by
+ * moving the current best one's weights a random amount, and the two play
+ * a match; when the candidate wins it becomes the new best and is written
+ * to the tuned weights file (see Weights), where the AI picks it up the
+ * next time the game starts.
+ *
+ * This is a (1+1) evolution strategy: the size of the random steps grows
+ * after a round the candidate wins and shrinks after a round it loses, so
+ * that about one round in five succeeds.  Tuning stops after the given
+ * number of rounds, or early, once PATIENCE rounds in a row haven't
+ * improved on the best or the steps have become too small to matter.  A
+ * match is also cut short as soon as the candidate is clearly losing it.
+ *
+ * Only the positional weights (mixed, empty, single and pair) are tuned.
+ * The win and block weights stay as they are, so that a win always comes
+ * first and a block second, and the positional weights are kept small
+ * enough that no square can outscore a block.  Every game starts with
+ * OPENING_MOVES random moves, and every opening is played twice with the
+ * sides swapped, the same openings in every round.
+ *
+ * The budget works as in Tournament.
+ *
+ * Usage: WeightTuner AI games threads budget [rounds]
+ * e.g. WeightTuner Hard 400 8 100 50
+ * @author John Thomson
+ */
+public class WeightTuner {
+	private static final int OPENING_MOVES = 2;
+	private static final int PATIENCE = 12;
+	private static final int BATCHES = 4;
+	private static final double START_STEP = 1.0;
+	private static final double MIN_STEP = 0.05;
+	private static final double GROW = 1.5;
+	// Shrinking by the fourth root makes one success in five break even.
+	private static final double SHRINK = Math.pow(GROW, -0.25);
+	private static final long SEED = 2007;
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
+		if (args.length < 4) {
+			System.out.println("Usage: WeightTuner AI games threads budget [rounds]");
+			return;
+		}
+		if (System.getProperty("qubic.threads") == null)
+			System.setProperty("qubic.threads", "1");
+		String name = args[0];
+		int games = Math.max(2, Integer.parseInt(args[1]) & ~1);
+		int threads = Integer.parseInt(args[2]);
+		SearchBudget budget = Tournament.parseBudget(args[3]);
+		int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+		QubicAI ai = Tournament.findAI(QubicMain.newBoard(Player.COMPUTER, Player.HUMAN), name);
+		if (!(ai instanceof WeightedAI)) {
+			System.out.println(name + " is not an AI with row weights");
+			return;
+		}
+		Weights best = ((WeightedAI) ai).getWeights();
+		File file = Weights.getTunedFile();
+		System.out.println("Tuning " + best + " with " + games + " games a round on " + threads + " threads");
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			Random random = new Random(SEED);
+			double step = START_STEP;
+			int failures = 0;
+			for (int round = 1; round <= rounds && failures < PATIENCE && step >= MIN_STEP; round++) {
+				Weights candidate = mutate(best, step, random);
+				Tournament.Record record = match(pool, threads, name, candidate, best, games, budget);
+				boolean better = record.score() - record.error() > 0.5;
+				System.out.printf("round %d\t%s\t%d games\t%.1f%%\t%s%n", round, candidate, record.games(),
+						100 * record.score(), better ? "better" : "not better");
+				if (better) {
+					best = candidate;
+					save(file, best);
+					step *= GROW;
+					failures = 0;
+				} else {
+					step *= SHRINK;
+					failures++;
+				}
+			}
+			System.out.println("Best: " + best);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns a copy of the profile with every positional weight moved by
+	 * a normally distributed amount, step times the weight's own size.
+	 */
+	private static Weights mutate(Weights w, double step, Random random) {
+		int limit = (w.getBlock() - 1) / (maxLinesThrough() + 1);
+		int[] weights = {w.getMixed(), w.getEmpty(), w.getSingle(), w.getPair()};
+		for (int i = 0; i < weights.length; i++) {
+			double size = Math.max(2, Math.abs(weights[i]));
+			int moved = weights[i] + (int) Math.round(random.nextGaussian() * step * size);
+			weights[i] = Math.max(-limit, Math.min(limit, moved));
+		}
+		return new Weights(w.getName(), weights[0], weights[1], weights[2], weights[3], w.getBlock(), w.getWin());
+	}
+
+	private static int maxLinesThrough() {
+		int max = 0;
+		for (int cell = 0; cell < BitBoard.CELLS; cell++)
+			max = Math.max(max, BitBoard.getLinesThrough(cell).length);
+		return max;
+	}
+
+	/**
+	 * Plays the candidate against the best profile in batches of games
+	 * spread over the pool, stopping after a batch if the candidate can
+	 * no longer plausibly come out ahead.
+	 * @return the candidate's record
+	 */
+	private static Tournament.Record match(ExecutorService pool, int threads, String name, Weights candidate,
+			Weights best, int games, SearchBudget budget) throws InterruptedException, ExecutionException {
+		Tournament.Record record = new Tournament.Record();
+		int openings = games / 2;
+		int perBatch = Math.max(1, (openings + BATCHES - 1) / BATCHES);
+		for (int first = 0; first < openings; first += perBatch) {
+			int last = Math.min(openings, first + perBatch);
+			int perBlock = Math.max(1, (last - first + threads - 1) / threads);
+			List<Future<Tournament.Record>> blocks = new ArrayList<Future<Tournament.Record>>();
+			for (int from = first; from < last; from += perBlock)
+				blocks.add(pool.submit(new Openings(name, candidate, best, from, Math.min(last, from + perBlock),
+						budget)));
+			for (Future<Tournament.Record> f : blocks)
+				record.add(f.get());
+			if (record.score() + 2 * record.error() < 0.5)
+				break;
+		}
+		return record;
+	}
+
+	/**
+	 * Writes the profile to the tuned weights file, keeping the other
+	 * profiles already in it.
+	 */
+	private static void save(File file, Weights weights) throws IOException {
+		Map<String, Weights> profiles = new HashMap<String, Weights>();
+		if (file.exists())
+			profiles.putAll(Weights.read(file));
+		profiles.put(weights.getName(), weights);
+		Weights.write(file, profiles.values(), "Row weights tuned by WeightTuner");
+	}
+
+	/**
+	 * Plays a range of the openings, each once with either profile moving
+	 * first, on the thread that runs it.  Returns the candidate's record.
+	 */
+	private static class Openings implements Callable<Tournament.Record> {
+		private String name;
+		private Weights candidate;
+		private Weights best;
+		private int from;
+		private int to;
+		private SearchBudget budget;
+
+		Openings(String name, Weights candidate, Weights best, int from, int to, SearchBudget budget) {
+			this.name = name;
+			this.candidate = candidate;
+			this.best = best;
+			this.from = from;
+			this.to = to;
+			this.budget = budget;
+		}
+
+		public Tournament.Record call() {
+			QubicBoard[] boards = Tournament.newBoards();
+			QubicAI[] ais = {Tournament.findAI(boards[0], name), Tournament.findAI(boards[1], name)};
+			((WeightedAI) ais[0]).setWeights(candidate);
+			((WeightedAI) ais[1]).setWeights(best);
+			Tournament.Record[] records = {new Tournament.Record(), new Tournament.Record()};
+			for (int opening = from; opening < to; opening++) {
+				for (int starter = 0; starter < 2; starter++) {
+					Tournament.startGame(boards, starter);
+					Random random = new Random(SEED + opening);
+					for (int i = 0; i < OPENING_MOVES; i++) {
+						int cell;
+						do {
+							cell = random.nextInt(BitBoard.CELLS);
+						} while (boards[0].getSquare(cell).getState() != null);
+						boards[0].select(cell);
+						boards[1].select(cell);
+					}
+					Tournament.play(boards, ais, budget, records);
+				}
+			}
+			return records[0];
+		}
+	}
+}
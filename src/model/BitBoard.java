@@ -0,0 +1,375 @@
+package model;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import model.QubicBoard.Player;
+
+/**
+ * A compact version of the board meant for the AI searches.  The position is
+ * stored as one 64-bit occupancy word per player, where bit n is the cell
+ * with index n (see Square#index), and the 76 rows are stored as 64-bit
+ * masks.  Making a move, taking it back and testing for a win are all done
+ * with a handful of bit operations and nothing is allocated.
+ *
+ * A BitBoard is built from a QubicBoard and can be written back to one, so
+ * the AIs can do their thinking here and hand the views a normal board.
+ *
+ * To walk the open cells:
+ * <pre>
+ * for (long open = b.getOpenCells(); open != 0; open &amp;= open - 1) {
+ *     int cell = Long.numberOfTrailingZeros(open);
+ *     ...
+ * }
+ * </pre>
+ * @author John Thomson
+ */
+public class BitBoard implements Cloneable {
+	public static final int CELLS = 64;
+	public static final int LINE_COUNT = 76;
+
+	/** The masks of the 76 rows, in the order of rows.dat. */
+	private static final long[] LINES = new long[LINE_COUNT];
+	/** For each cell, the indexes of the rows that pass through it. */
+	private static final int[][] CELL_LINES = new int[CELLS][];
+
+	private long[] pieces;
+	private int[] moves;
+	private int moveCount;
+	private Player firstPlayer;
+	private Player secondPlayer;
+	private Player currentPlayer;
+	private boolean gameOver;
+	private long key;
+
+	static {
+		InputStream in = BitBoard.class.getResourceAsStream("/resources/rows.dat");
+		if (in == null)
+			throw new RuntimeException("Could not find /resources/rows.dat");
+		Scanner allRows = new Scanner(in);
+		int count = 0;
+		while (allRows.hasNextLine()) {
+			String line = allRows.nextLine().trim();
+			if (line.equals(""))
+				continue;
+			String[] values = line.split("[ \t]+");
+			long mask = 0;
+			for (int i = 0; i < 4; i++) {
+				int x = Integer.parseInt(values[3 * i + 1]);
+				int y = Integer.parseInt(values[3 * i + 2]);
+				int z = Integer.parseInt(values[3 * i + 3]);
+				mask |= 1L << Square.index(x, y, z);
+			}
+			LINES[count++] = mask;
+		}
+		allRows.close();
+		if (count != LINE_COUNT)
+			throw new RuntimeException("rows.dat has " + count + " rows, expected " + LINE_COUNT);
+
+		for (int cell = 0; cell < CELLS; cell++) {
+			List<Integer> through = new ArrayList<Integer>();
+			for (int i = 0; i < LINE_COUNT; i++) {
+				if ((LINES[i] & (1L << cell)) != 0)
+					through.add(i);
+			}
+			CELL_LINES[cell] = new int[through.size()];
+			for (int i = 0; i < through.size(); i++)
+				CELL_LINES[cell][i] = through.get(i);
+		}
+	}
+
+	/**
+	 * Constructs an empty BitBoard.
+	 * @param first The player that moves first
+	 * @param second The player that moves second
+	 */
+	public BitBoard(Player first, Player second) {
+		firstPlayer = first;
+		secondPlayer = second;
+		currentPlayer = first;
+		pieces = new long[Player.values().length];
+		moves = new int[CELLS];
+		key = Zobrist.toMove(first);
+	}
+
+	/**
+	 * Constructs a BitBoard holding the same position, move history and
+	 * player to move as the given QubicBoard.
+	 * @param board
+	 */
+	public BitBoard(QubicBoard board) {
+		this(board.getFirstPlayer(), board.getSecondPlayer());
+		for (Square s : board.getGrid()) {
+			if (s.getState() != null)
+				pieces[s.getState().ordinal()] |= 1L << s.getIndex();
+		}
+		for (Square s : board.getMoveHistory())
+			moves[moveCount++] = s.getIndex();
+		currentPlayer = board.getCurrentPlayer();
+		gameOver = board.gameOver();
+		key = board.getKey();
+	}
+
+	/**
+	 * Replays the moves of this BitBoard onto the given QubicBoard, which
+	 * is reset first.  Afterwards the QubicBoard holds the same position
+	 * and can undo every move.  The board's listeners are updated once,
+	 * at the end.
+	 * @param board
+	 */
+	public void applyTo(QubicBoard board) {
+		board.beginBatch();
+		try {
+			board.resetBoard();
+			for (int i = 0; i < moveCount; i++)
+				board.select(moves[i]);
+		} finally {
+			board.endBatch();
+		}
+	}
+
+	/**
+	 * Puts the current player's piece on the given cell and passes the
+	 * turn.  The cell is not checked, it must be open.
+	 * @param cell
+	 */
+	public void make(int cell) {
+		long bit = 1L << cell;
+		long own = pieces[currentPlayer.ordinal()] | bit;
+		pieces[currentPlayer.ordinal()] = own;
+		moves[moveCount++] = cell;
+		key ^= Zobrist.piece(currentPlayer, cell);
+		int[] through = CELL_LINES[cell];
+		for (int i = 0; i < through.length; i++) {
+			long mask = LINES[through[i]];
+			if ((own & mask) == mask) {
+				gameOver = true;
+				break;
+			}
+		}
+		changePlayer();
+	}
+
+	/**
+	 * Takes back the last move.
+	 * @return cell - The cell that was emptied, -1 if there were no moves.
+	 */
+	public int unmake() {
+		if (moveCount == 0)
+			return -1;
+		int cell = moves[--moveCount];
+		changePlayer();
+		pieces[currentPlayer.ordinal()] &= ~(1L << cell);
+		key ^= Zobrist.piece(currentPlayer, cell);
+		gameOver = false;
+		return cell;
+	}
+
+	private void changePlayer() {
+		key ^= Zobrist.toMove(currentPlayer);
+		if (currentPlayer == firstPlayer)
+			currentPlayer = secondPlayer;
+		else
+			currentPlayer = firstPlayer;
+		key ^= Zobrist.toMove(currentPlayer);
+	}
+
+	/**
+	 * Returns true if playing the given cell would complete a row for
+	 * the given player.
+	 * @param p
+	 * @param cell
+	 */
+	public boolean isWinningMove(Player p, int cell) {
+		long own = pieces[p.ordinal()] | (1L << cell);
+		int[] through = CELL_LINES[cell];
+		for (int i = 0; i < through.length; i++) {
+			long mask = LINES[through[i]];
+			if ((own & mask) == mask)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the given player has a complete row.
+	 * @param p
+	 */
+	public boolean hasWon(Player p) {
+		long own = pieces[p.ordinal()];
+		for (int i = 0; i < LINE_COUNT; i++) {
+			if ((own & LINES[i]) == LINES[i])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the open cells that would complete a row for the given
+	 * player, as a bit set.
+	 * @param p
+	 */
+	public long getWinningCells(Player p) {
+		long own = pieces[p.ordinal()];
+		long other = getOccupied() & ~own;
+		long result = 0;
+		for (int i = 0; i < LINE_COUNT; i++) {
+			long mask = LINES[i];
+			if ((other & mask) == 0 && Long.bitCount(own & mask) == 3)
+				result |= mask & ~own;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the cells held by the given player, as a bit set.
+	 * @param p
+	 */
+	public long getPieces(Player p) {
+		return pieces[p.ordinal()];
+	}
+
+	/**
+	 * Returns every occupied cell, as a bit set.
+	 */
+	public long getOccupied() {
+		long occupied = 0;
+		for (int i = 0; i < pieces.length; i++)
+			occupied |= pieces[i];
+		return occupied;
+	}
+
+	/**
+	 * Returns every open cell, as a bit set.
+	 */
+	public long getOpenCells() {
+		return ~getOccupied();
+	}
+
+	/**
+	 * Returns the Zobrist key of the position, the same one a QubicBoard
+	 * holding this position would give.
+	 * @see QubicBoard#getKey()
+	 */
+	public long getKey() {
+		return key;
+	}
+
+	public Player getCurrentPlayer() {
+		return currentPlayer;
+	}
+
+	public Player getFirstPlayer() {
+		return firstPlayer;
+	}
+
+	public Player getSecondPlayer() {
+		return secondPlayer;
+	}
+
+	/**
+	 * Returns the player that isn't the given one.
+	 * @param p
+	 */
+	public Player getOpponent(Player p) {
+		return p == firstPlayer ? secondPlayer : firstPlayer;
+	}
+
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Returns the cell of the nth move of the game, starting at 0.
+	 * @param n
+	 */
+	public int getMove(int n) {
+		return moves[n];
+	}
+
+	/**
+	 * Returns the cell of the last move, -1 if there isn't one.
+	 */
+	public int getLastMove() {
+		return moveCount == 0 ? -1 : moves[moveCount - 1];
+	}
+
+	/**
+	 * Returns true if the last move completed a row.
+	 */
+	public boolean gameOver() {
+		return gameOver;
+	}
+
+	/**
+	 * Returns true if every cell has been taken and nobody won.
+	 */
+	public boolean isFull() {
+		return moveCount == CELLS && !gameOver;
+	}
+
+	/**
+	 * Returns the mask of the given row, in the order of rows.dat.
+	 * @param line
+	 */
+	public static long getLine(int line) {
+		return LINES[line];
+	}
+
+	/**
+	 * Returns the indexes of the rows through the given cell.  The
+	 * array is shared, don't change it.
+	 * @param cell
+	 */
+	public static int[] getLinesThrough(int cell) {
+		return CELL_LINES[cell];
+	}
+
+	/**
+	 * Returns a new, unattached Square with the coordinates of the cell.
+	 * QubicBoard.select accepts it, since Squares are compared by coordinates.
+	 * @param cell
+	 */
+	public static Square toSquare(int cell) {
+		return new Square((cell >> 4) + 1, ((cell >> 2) & 3) + 1, (cell & 3) + 1);
+	}
+
+	public Object clone() {
+		BitBoard clone;
+		try {
+			clone = (BitBoard) super.clone();
+			clone.pieces = pieces.clone();
+			clone.moves = moves.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+		return clone;
+	}
+
+	/**
+	 * Returns a String representation of the Board, laid out the same
+	 * way as QubicBoard.toString.
+	 */
+	public String toString() {
+		StringBuilder output = new StringBuilder();
+		for (int i = 1; i <= 4; i++) {
+			output.append("  ");
+			for (int j = 1; j <= 4; j++) {
+				for (int k = 1; k <= 4; k++) {
+					long bit = 1L << Square.index(i, k, j);
+					if ((pieces[firstPlayer.ordinal()] & bit) != 0)
+						output.append("O ");
+					else if ((pieces[secondPlayer.ordinal()] & bit) != 0)
+						output.append("X ");
+					else
+						output.append("_ ");
+				}
+				output.append("  ");
+			}
+			output.append("\n");
+		}
+		return output.toString();
+	}
+}
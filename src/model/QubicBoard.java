@@ -5,7 +5,9 @@ import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Stack;
 
@@ -14,8 +16,12 @@ import view.BoardListener;
 import ai.EasyAI;
 import ai.ExpertAI;
 import ai.HardAI;
+import ai.MasterAI;
+import ai.MonteCarloAI;
+import ai.PerfectAI;
 import ai.QubicAI;
 import ai.SimpleAI;
+import ai.ThreatSpaceAI;
 
 /**
  * This is the model for the Qubic game.  It constructs two lists for data storage.
@@ -28,17 +34,22 @@ import ai.SimpleAI;
 public class QubicBoard implements Cloneable, Serializable {
 	private ArrayList<Row> rows;
 	private ArrayList<Square> squares;
+	private transient Square[] cells;
 	private ArrayList<BoardListener> listeners;
+	private transient int batchDepth;
+	private transient boolean pendingUpdate;
 	private ArrayList<QubicAI> ais;
 	private QubicAI currentFirstAI;
 	private QubicAI currentSecondAI;
 	private Stack<Square> undoStack;
 	private boolean gameOver;
 	private boolean catsGame;
+	private int deadRows;
 	private Player currentPlayer;
 	private Player firstPlayer;
 	private Player secondPlayer;
 	private Square lastMove;
+	private long key;
 	
 	private static final long serialVersionUID = 1;
 	
@@ -70,6 +81,10 @@ public class QubicBoard implements Cloneable, Serializable {
 		addAI(new EasyAI(this));
 		addAI(new HardAI(this));
 		addAI(new ExpertAI(this));
+		addAI(new MasterAI(this));
+		addAI(new ThreatSpaceAI(this));
+		addAI(new PerfectAI(this));
+		addAI(new MonteCarloAI(this));
 		setFirstAI("Hard");
 		setSecondAI("Hard");
 		undoStack = new Stack<Square>();
@@ -123,6 +138,42 @@ public class QubicBoard implements Cloneable, Serializable {
 			squares.add(s);
 			//System.out.println(s.diagnostic());
 		}
+		buildCells();
+		key = computeKey();
+	}
+	
+	/**
+	 * Fills the cell lookup table, so a Square can be found from its
+	 * coordinates without searching the squares list.
+	 */
+	private void buildCells() {
+		cells = new Square[64];
+		for (Square s : squares)
+			cells[s.getIndex()] = s;
+	}
+	
+	/**
+	 * Returns the board's Square at the given cell index.
+	 * @param cell From 0 to 63
+	 * @return the Square
+	 * @see Square#index(int, int, int)
+	 */
+	public Square getSquare(int cell) {
+		return cells[cell];
+	}
+	
+	/**
+	 * Returns the board's Square with the given coordinates, or null
+	 * if they are off the board.
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return the Square
+	 */
+	public Square getSquare(int x, int y, int z) {
+		if (x < 1 || x > 4 || y < 1 || y > 4 || z < 1 || z > 4)
+			return null;
+		return cells[Square.index(x, y, z)];
 	}
 	/**
 	 * Returns an unmodifiable version of the squares list.
@@ -137,6 +188,19 @@ public class QubicBoard implements Cloneable, Serializable {
 			ais.add(ai);
 	}
 	
+	/**
+	 * Returns the AI of the given name this board registers, or null if
+	 * there is none.
+	 * @param name
+	 */
+	public QubicAI getAI(String name) {
+		for (QubicAI ai: ais) {
+			if (name.equals(ai.toString()))
+				return ai;
+		}
+		return null;
+	}
+	
 	public QubicAI getFirstAI() {
 		return currentFirstAI;
 	}
@@ -186,25 +250,62 @@ public class QubicBoard implements Cloneable, Serializable {
 	 * the square had been previously selected or the game is over.
 	 */
 	public boolean select(Square s) {
-		if (gameOver) // If the game is over, you can't change the board.
-			return false;
-		int index = squares.indexOf(s);
-		if (index == -1) {
+		if (getSquare(s.getX(), s.getY(), s.getZ()) == null) {
 			System.out.println("The square you gave me doesn't exist on the board!!!");
 			//throw new IllegalArgumentException();
 			return false;
-		} else if (squares.get(index).getState() == null) {
-			squares.get(index).setState(currentPlayer);
-			lastMove = squares.get(index);
 		}
-		else
+		return select(s.getIndex());
+	}
+	
+	/**
+	 * Selects the Square at the given cell index for the current player.
+	 * @param cell From 0 to 63
+	 * @return true if the square was sucessfully selected, false if
+	 * the square had been previously selected or the game is over.
+	 * @see Square#index(int, int, int)
+	 */
+	public boolean select(int cell) {
+		if (gameOver) // If the game is over, you can't change the board.
+			return false;
+		Square s = cells[cell];
+		if (s.getState() != null)
 			return false;
+		int mixedBefore = countMixed(s);
+		s.setState(currentPlayer);
+		deadRows += countMixed(s) - mixedBefore;
+		for (Row r : s.containingRows()) {
+			if (r.getNumSelected() == 4 && r.getState() != RowState.MIXED) {
+				gameOver = true;
+				break;
+			}
+		}
+		catsGame = deadRows == rows.size();
+		lastMove = s;
+		key ^= Zobrist.piece(currentPlayer, cell);
 		changePlayer();
 		stateChanged();
 		undoStack.push(s);
 		return true;
 	}
 	
+	/**
+	 * Counts the rows through the given Square that both players have
+	 * taken a square in.  Only these rows can change when the Square is
+	 * selected or undone, which keeps the dead row count up to date
+	 * without looking at the whole board.
+	 * @param s
+	 * @return the number of MIXED rows containing s
+	 */
+	private int countMixed(Square s) {
+		int count = 0;
+		for (Row r : s.containingRows()) {
+			if (r.getState() == RowState.MIXED)
+				count++;
+		}
+		return count;
+	}
+	
 	/**
 	 * Adds a BoardListener to the list of listeners to the board.
 	 * These listeners are alerted whenever the board is changed with
@@ -229,35 +330,79 @@ public class QubicBoard implements Cloneable, Serializable {
 	/**
 	 * Alerts all listeners to the fact that the state of the board has
 	 * been changed and supplies them with the address to update themselves.
+	 * The game over and cat's game flags are kept up to date by select
+	 * and undo, so they are already right when the listeners look.
 	 */
 	private void stateChanged() {
-		//TODO: Impliment Cat's Game determination.
-		int count = 0;
-		for (Row r : rows) {
-			if (r.getNumSelected() == 4 && r.getState() != Row.RowState.MIXED) {
-				//System.out.println("GameOver!");
-				//System.out.println(r.getState());
-				gameOver = true;
-				break;
-			}
-			if (r.getState() == RowState.MIXED)
-				count++;
+		if (batchDepth > 0) {
+			pendingUpdate = true;
+			return;
 		}
-		if (count == 76)
-			catsGame = true;
+		pendingUpdate = false;
 		for (BoardListener l : listeners) {
 			l.update(this);
 		}
 	}
 	
+	/**
+	 * Starts a batch of changes.  Until the matching endBatch, the
+	 * listeners aren't told about any change to the board.  Batches
+	 * can be nested.
+	 */
+	public void beginBatch() {
+		batchDepth++;
+	}
+	
+	/**
+	 * Ends a batch of changes.  When the outermost batch ends, the
+	 * listeners are updated once if anything changed during it.
+	 */
+	public void endBatch() {
+		if (batchDepth == 0)
+			throw new IllegalStateException("endBatch without beginBatch");
+		batchDepth--;
+		if (batchDepth == 0 && pendingUpdate)
+			stateChanged();
+	}
+	
 	/**
 	 * Internal function that sets it so the next player now gets a turn.
 	 */
 	private void changePlayer() {
+		key ^= Zobrist.toMove(currentPlayer);
 		if (currentPlayer == firstPlayer)
 			currentPlayer = secondPlayer;
 		else
 			currentPlayer = firstPlayer;
+		key ^= Zobrist.toMove(currentPlayer);
+	}
+	
+	/**
+	 * Computes the position key from scratch.
+	 * @return key
+	 */
+	private long computeKey() {
+		long computer = 0;
+		long human = 0;
+		for (Square s : squares) {
+			if (s.getState() == Player.COMPUTER)
+				computer |= 1L << s.getIndex();
+			else if (s.getState() == Player.HUMAN)
+				human |= 1L << s.getIndex();
+		}
+		return Zobrist.key(computer, human, currentPlayer);
+	}
+	
+	/**
+	 * Returns the 64-bit Zobrist key of the current position, which
+	 * covers every piece and the player to move.  It is updated with a
+	 * couple of XORs on every select and undo, and equal positions
+	 * always have equal keys.
+	 * @return key
+	 * @see Zobrist
+	 */
+	public long getKey() {
+		return key;
 	}
 	
 	/**
@@ -269,8 +414,7 @@ public class QubicBoard implements Cloneable, Serializable {
 			output += "  ";
 			for (int j = 1; j <= 4; j++) {
 				for (int k = 1; k <= 4; k++) {
-					Square sqr = new Square(i, k, j);
-					Square s = squares.get(squares.indexOf(sqr));
+					Square s = getSquare(i, k, j);
 					if (s.getState() == firstPlayer)
 						output += "O ";
 					else if (s.getState() == secondPlayer)
@@ -296,8 +440,11 @@ public class QubicBoard implements Cloneable, Serializable {
 		for (Square s : squares)
 			s.clear();
 		gameOver = false;
+		catsGame = false;
+		deadRows = 0;
 		undoStack = new Stack<Square>();
 		currentPlayer = firstPlayer;
+		key = computeKey();
 		stateChanged();
 	}
 	/**
@@ -310,17 +457,26 @@ public class QubicBoard implements Cloneable, Serializable {
 			return null;
 		Square undo = undoStack.pop();
 		
-		int index = squares.indexOf(undo);
-		if (index == -1)
-			throw new RuntimeException("Undo Stack is corrupted, Square not found!");
+		Square s = cells[undo.getIndex()];
+		int mixedBefore = countMixed(s);
+		key ^= Zobrist.piece(s.getState(), s.getIndex());
+		s.undo();
+		deadRows += countMixed(s) - mixedBefore;
 		gameOver = false;
-		catsGame = false;
-		squares.get(index).undo();
+		catsGame = deadRows == rows.size();
 		changePlayer();
 		stateChanged();
 		return undo;
 	}
 	
+	/**
+	 * Returns the moves made so far, oldest first.
+	 * @return the move history, unmodifiable
+	 */
+	public List<Square> getMoveHistory() {
+		return Collections.unmodifiableList(undoStack);
+	}
+	
 	/**
 	 * Returns if an undo is possible.
 	 * @return undoable
@@ -329,23 +485,59 @@ public class QubicBoard implements Cloneable, Serializable {
 		return !undoStack.empty();
 	}
 	
-	public Object clone() {
+	/**
+	 * Returns a copy of the board for the AIs to search on.  The copy
+	 * starts with no listeners, so simulated moves made on it never
+	 * reach the views.  It has its own Squares and Rows, so nothing done
+	 * to it changes this board, and several copies can be searched on
+	 * different threads at once.  The copy itself must be made on the
+	 * thread that changes this board (the event thread for the GUI).
+	 */
+	public QubicBoard snapshot() {
 		QubicBoard clone;
 		try {
 			clone = (QubicBoard) super.clone();
-			clone.listeners = (ArrayList<BoardListener>) listeners.clone();
-			clone.rows = (ArrayList<Row>) rows.clone();
-            clone.squares = (ArrayList<Square>) squares.clone();
-            //for (int i = 0; i < squares.size(); i++)
-            //    clone.squares.set(i, (Square)clone.squares.get(i).clone());
-			//clone.undoStack = (Stack<Square>) undoStack.clone();
-			//clone.currentPlayer = (Player) currentPlayer.
-		} catch (Exception e) {
+		} catch (CloneNotSupportedException e) {
 			throw new RuntimeException(e);
 		}
+		clone.listeners = new ArrayList<BoardListener>();
+		clone.batchDepth = 0;
+		clone.pendingUpdate = false;
+		
+		clone.squares = new ArrayList<Square>(squares.size());
+		clone.cells = new Square[64];
+		for (Square s : squares) {
+			Square copy = s.copy();
+			clone.squares.add(copy);
+			clone.cells[copy.getIndex()] = copy;
+		}
+		clone.rows = new ArrayList<Row>(rows.size());
+		Map<Row, Row> rowCopies = new IdentityHashMap<Row, Row>();
+		for (Row r : rows) {
+			Row copy = r.copy(clone.cells);
+			clone.rows.add(copy);
+			rowCopies.put(r, copy);
+		}
+		for (Square s : squares) {
+			Square copy = clone.cells[s.getIndex()];
+			for (Row r : s.containingRows())
+				copy.addRow(rowCopies.get(r));
+		}
+		clone.undoStack = new Stack<Square>();
+		for (Square s : undoStack)
+			clone.undoStack.push(clone.cells[s.getIndex()]);
+		if (lastMove != null)
+			clone.lastMove = clone.cells[lastMove.getIndex()];
 		return clone;
 	}
 	
+	/**
+	 * Same as snapshot().
+	 */
+	public Object clone() {
+		return snapshot();
+	}
+	
 	public Square getLastMove() {
 		return lastMove;
 	}
@@ -361,6 +553,22 @@ public class QubicBoard implements Cloneable, Serializable {
 	private void readObject(ObjectInputStream in) throws ClassNotFoundException, IOException {
 		in.defaultReadObject();
 		listeners = new ArrayList<BoardListener>();
+		buildCells();
+		// Rebuild the row counts from the squares, rows don't save them.
+		for (Row r : rows)
+			r.clear();
+		for (Square s : squares) {
+			if (s.getState() != null) {
+				for (Row r : s.containingRows())
+					r.selectSquare(s);
+			}
+		}
+		deadRows = 0;
+		for (Row r : rows) {
+			if (r.getState() == RowState.MIXED)
+				deadRows++;
+		}
+		key = computeKey();
 	}
 }
 
@@ -1,5 +1,9 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -16,7 +20,9 @@ import model.QubicBoard.Player;
 public class Row implements Serializable {
 	// Need to add state information
 	private ArrayList<Square> squares;
-	private ArrayList<Square> selectedSquares;
+	private Square[] selectedSquares;
+	private int computerCount;
+	private int humanCount;
 	/**
 	 * An enumerator for the Row and its possible states: OPEN, COMPUTER, HUMAN
 	 * and MIXED.  
@@ -27,6 +33,17 @@ public class Row implements Serializable {
 	private RowState state;
 	private int numSelected;
 	private static final long serialVersionUID = 1;
+	/**
+	 * Rows are saved as they always were, the selected squares as a list,
+	 * so old saves still open.  The counts aren't saved, the board
+	 * rebuilds them after reading.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("squares", ArrayList.class),
+		new ObjectStreamField("selectedSquares", ArrayList.class),
+		new ObjectStreamField("state", RowState.class),
+		new ObjectStreamField("numSelected", Integer.TYPE)
+	};
 	
 	/**
 	 * Constructs a new empty Row object with the points s1, s2, s3, s4.
@@ -37,7 +54,7 @@ public class Row implements Serializable {
 	 */
 	public Row(Square s1, Square s2, Square s3, Square s4) {
 		squares = new ArrayList<Square>();
-		selectedSquares = new ArrayList<Square>();
+		selectedSquares = new Square[4];
 		state = RowState.OPEN;
 		squares.add(s1);
 		squares.add(s2);
@@ -45,6 +62,26 @@ public class Row implements Serializable {
 		squares.add(s4);
 	}
 	
+	/**
+	 * Returns a copy of this Row in the same state, with its selected
+	 * squares taken from the given cell table.  Used by the board when
+	 * it copies itself.
+	 * @param cells The copied board's Squares, by cell index
+	 * @return copy
+	 */
+	Row copy(Square[] cells) {
+		Row copy = new Row(squares.get(0), squares.get(1), squares.get(2), squares.get(3));
+		for (int i = 0; i < 4; i++) {
+			if (selectedSquares[i] != null)
+				copy.selectedSquares[i] = cells[selectedSquares[i].getIndex()];
+		}
+		copy.computerCount = computerCount;
+		copy.humanCount = humanCount;
+		copy.numSelected = numSelected;
+		copy.state = state;
+		return copy;
+	}
+	
 	/**
 	 * Returns a String representation of the Row.
 	 */
@@ -72,35 +109,44 @@ public class Row implements Serializable {
 	 * @param s The selected Square
 	 */
 	public void selectSquare(Square s) {
-		selectedSquares.add(s);
+		selectedSquares[slotOf(s)] = s;
+		if (s.getState() == Player.COMPUTER)
+			computerCount++;
+		else if (s.getState() == Player.HUMAN)
+			humanCount++;
 		numSelected++;
 		stateChanged();
 	}
 	
+	/**
+	 * Returns the position of the given Square within this Row, found by
+	 * comparing coordinates.
+	 * @param s
+	 * @return slot - 0 to 3
+	 */
+	private int slotOf(Square s) {
+		for (int i = 0; i < 4; i++) {
+			if (squares.get(i).equals(s))
+				return i;
+		}
+		throw new IllegalArgumentException(s + " is not in this row");
+	}
+	
 	/**
 	 * This is called every time the internal state of the Row is changed.
 	 * It updates the Row state information, determining if it is a computer,
-	 * human or mixed.
+	 * human or mixed, from the number of squares each player holds.
 	 *
 	 */
-	private void stateChanged() {		
-		RowState tempState = RowState.OPEN;
-		for (Square s : selectedSquares) {
-			if (s.getState() == Player.COMPUTER) {
-				if (tempState == RowState.OPEN) {
-					tempState = RowState.COMPUTER;
-				} else if (tempState == RowState.HUMAN) {
-					tempState = RowState.MIXED;
-				}
-			} else if (s.getState() == Player.HUMAN) {
-				if (tempState == RowState.OPEN) {
-					tempState = RowState.HUMAN;
-				} else if (tempState == RowState.COMPUTER) {
-					tempState = RowState.MIXED;
-				}
-			}
-		}
-		state = tempState;
+	private void stateChanged() {
+		if (computerCount > 0 && humanCount > 0)
+			state = RowState.MIXED;
+		else if (computerCount > 0)
+			state = RowState.COMPUTER;
+		else if (humanCount > 0)
+			state = RowState.HUMAN;
+		else
+			state = RowState.OPEN;
 	}
 	
 	/**
@@ -129,8 +175,30 @@ public class Row implements Serializable {
 		return Collections.unmodifiableList(squares);
 	}
 	
+	/**
+	 * Returns the Squares in this Row that have been selected.  This builds
+	 * a new list, so it shouldn't be used where speed matters.
+	 * @return selectedSquares
+	 */
 	public List<Square> getSelectedSquares() {
-		return Collections.unmodifiableList(selectedSquares);
+		List<Square> selected = new ArrayList<Square>();
+		for (Square s : selectedSquares) {
+			if (s != null)
+				selected.add(s);
+		}
+		return Collections.unmodifiableList(selected);
+	}
+	
+	/**
+	 * Returns the number of Squares in this Row held by the given player.
+	 * @param p
+	 * @return count
+	 */
+	public int getCount(Player p) {
+		if (p == Player.COMPUTER)
+			return computerCount;
+		else
+			return humanCount;
 	}
 	
 	/**
@@ -140,18 +208,56 @@ public class Row implements Serializable {
 	 */
 	public void clear() {
 		state = RowState.OPEN;
-		selectedSquares = new ArrayList<Square>();
+		selectedSquares = new Square[4];
+		computerCount = 0;
+		humanCount = 0;
 		numSelected = 0;
 	}
 	
 	/**
 	 * Removes the specified square from the row, used for the
-	 * board's undo function.
+	 * board's undo function.  The Square must still hold the state
+	 * it had when it was selected.
 	 * @param s
 	 */
 	public void undo(Square s) {
+		selectedSquares[slotOf(s)] = null;
+		if (s.getState() == Player.COMPUTER)
+			computerCount--;
+		else if (s.getState() == Player.HUMAN)
+			humanCount--;
 		numSelected--;
-		selectedSquares.remove(s); //TODO: Confirm functionality
 		stateChanged();
 	}
-}
\ No newline at end of file
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ArrayList<Square> selected = new ArrayList<Square>();
+		for (Square s : selectedSquares) {
+			if (s != null)
+				selected.add(s);
+		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("squares", squares);
+		fields.put("selectedSquares", selected);
+		fields.put("state", state);
+		fields.put("numSelected", numSelected);
+		out.writeFields();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws ClassNotFoundException, IOException {
+		ObjectInputStream.GetField fields = in.readFields();
+		squares = (ArrayList<Square>) fields.get("squares", null);
+		state = (RowState) fields.get("state", RowState.OPEN);
+		numSelected = fields.get("numSelected", 0);
+		// The squares may not be filled in yet, so they are matched by
+		// reference rather than by coordinates.
+		selectedSquares = new Square[4];
+		for (Square s : (ArrayList<Square>) fields.get("selectedSquares", null)) {
+			for (int i = 0; i < 4; i++) {
+				if (squares.get(i) == s)
+					selectedSquares[i] = s;
+			}
+		}
+	}
+}
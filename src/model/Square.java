@@ -34,6 +34,17 @@ public class Square implements Serializable {
 		state = null;
 	}
 	
+	/**
+	 * Returns a new Square with the same coordinates and state, but not
+	 * yet part of any Row.  Used by the board when it copies itself.
+	 * @return copy
+	 */
+	Square copy() {
+		Square copy = new Square(x, y, z);
+		copy.state = state;
+		return copy;
+	}
+	
 	/**
 	 * Returns the an unmodifiable version of the set of the 
 	 * containing Rows for this Square.
@@ -67,6 +78,29 @@ public class Square implements Serializable {
 		return z;
 	}
 	
+	/**
+	 * Returns the cell index of the Square, a number from 0 to 63 that
+	 * is unique to its coordinates.
+	 * @return index
+	 * @see Square#index(int, int, int)
+	 */
+	public int getIndex() {
+		return index(x, y, z);
+	}
+	
+	/**
+	 * Converts a set of coordinates (each from 1 to 4) into the cell index
+	 * used by the bit-based parts of the model.  The x coordinate is the
+	 * most significant, the z coordinate the least.
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return index - (x-1)*16 + (y-1)*4 + (z-1)
+	 */
+	public static int index(int x, int y, int z) {
+		return ((x - 1) << 4) | ((y - 1) << 2) | (z - 1);
+	}
+	
 	/**
 	 * Only to be used in constructing the square, this adds a row to
 	 * the Square's inventory of containing rows.
@@ -104,13 +138,11 @@ public class Square implements Serializable {
 		for (Row r : containingRows) {
 			//System.out.println(this.diagnostic());
 			if (r.getNumSelected() == 3 && r.getState() != RowState.MIXED) {
-				List<Square> tempList = new ArrayList<Square>(r.getSquares());
-				//System.out.println(r);
-				for (Square s : r.getSelectedSquares()) {
-					if (s.getState() != null)
-						tempList.remove(s);
+				List<Square> selected = r.getSelectedSquares();
+				for (Square s : r.getSquares()) {
+					if (!selected.contains(s))
+						return s;
 				}
-				return tempList.get(0);
 			}
 		}
 		System.out.println("Um.. We have a problem...\n" + this.diagnostic());
@@ -153,6 +185,8 @@ public class Square implements Serializable {
 	 * same coordinates, they are equal.
 	 */
 	public boolean equals(Object o) {
+		if (!(o instanceof Square))
+			return false;
 		Square s = (Square) o;
 		if (this.x == s.x && this.y == s.y && this.z == s.z)
 			return true;
@@ -160,6 +194,14 @@ public class Square implements Serializable {
 			return false;
 	}
 	
+	/**
+	 * Returns a hash code based on the coordinates, so equal squares
+	 * have equal hash codes.
+	 */
+	public int hashCode() {
+		return (x * 31 + y) * 31 + z;
+	}
+	
 	/**
 	 * Updates the state of the rows that this square is connected
 	 * to, so when a square is selected, its rows will reflect that
@@ -185,8 +227,8 @@ public class Square implements Serializable {
 	 *
 	 */
 	public void undo() {
-		state = null;
 		for (Row r : containingRows)
 			r.undo(this);
+		state = null;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,276 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import model.QubicBoard.Player;
+
+/**
+ * The 192 symmetries of the 4x4x4 cube that map rows onto rows.  Each
+ * one is stored as a table taking a cell index (see Square#index) to the
+ * cell it moves to.
+ *
+ * Besides the 48 rotations and reflections of the cube, a row stays a
+ * row when the same permutation of the values 1 to 4 is applied to all
+ * three coordinates, as long as the permutation treats 1,4 and 2,3 as
+ * mirror pairs (for example swapping 1 with 2 and 3 with 4, which turns
+ * the cube inside out).  Combining the two gives 192 symmetries.
+ *
+ * These are used to treat positions that are the same up to symmetry as
+ * one position, and to skip moves that are equivalent to one already
+ * looked at.
+ * @author John Thomson
+ */
+public final class Symmetry {
+	public static final int COUNT = 192;
+
+	/** PERMUTATIONS[s][cell] is where symmetry s moves the cell. */
+	private static final int[][] PERMUTATIONS;
+	/** INVERSES[s] is the symmetry that undoes symmetry s. */
+	private static final int[] INVERSES;
+
+	static {
+		List<int[]> valuePerms = new ArrayList<int[]>();
+		for (int[] p : permutations(4)) {
+			boolean mirrored = true;
+			for (int i = 0; i < 4; i++) {
+				if (p[3 - i] != 3 - p[i])
+					mirrored = false;
+			}
+			if (mirrored)
+				valuePerms.add(p);
+		}
+
+		List<int[]> found = new ArrayList<int[]>();
+		for (int[] axes : permutations(3)) {
+			for (int[] values : valuePerms) {
+				for (int flips = 0; flips < 8; flips++) {
+					int[] perm = new int[BitBoard.CELLS];
+					for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+						int[] from = {cell >> 4, (cell >> 2) & 3, cell & 3};
+						int[] to = new int[3];
+						for (int k = 0; k < 3; k++) {
+							to[k] = values[from[axes[k]]];
+							if ((flips & (1 << k)) != 0)
+								to[k] = 3 - to[k];
+						}
+						perm[cell] = (to[0] << 4) | (to[1] << 2) | to[2];
+					}
+					boolean duplicate = false;
+					for (int[] other : found) {
+						if (Arrays.equals(other, perm)) {
+							duplicate = true;
+							break;
+						}
+					}
+					if (!duplicate)
+						found.add(perm);
+				}
+			}
+		}
+		if (found.size() != COUNT)
+			throw new RuntimeException("Found " + found.size() + " symmetries, expected " + COUNT);
+
+		PERMUTATIONS = found.toArray(new int[COUNT][]);
+		for (int s = 0; s < COUNT; s++) {
+			for (int i = 0; i < BitBoard.LINE_COUNT; i++) {
+				if (!isLine(transform(s, BitBoard.getLine(i))))
+					throw new RuntimeException("Symmetry " + s + " doesn't preserve row " + i);
+			}
+		}
+
+		INVERSES = new int[COUNT];
+		for (int s = 0; s < COUNT; s++) {
+			int[] inverse = new int[BitBoard.CELLS];
+			for (int cell = 0; cell < BitBoard.CELLS; cell++)
+				inverse[PERMUTATIONS[s][cell]] = cell;
+			for (int t = 0; t < COUNT; t++) {
+				if (Arrays.equals(PERMUTATIONS[t], inverse))
+					INVERSES[s] = t;
+			}
+		}
+	}
+
+	private Symmetry() {
+	}
+
+	/**
+	 * Returns every permutation of 0 to n-1, the identity first.
+	 */
+	private static List<int[]> permutations(int n) {
+		List<int[]> result = new ArrayList<int[]>();
+		permute(new int[n], 0, new boolean[n], result);
+		return result;
+	}
+
+	private static void permute(int[] current, int k, boolean[] used, List<int[]> result) {
+		if (k == current.length) {
+			result.add(current.clone());
+			return;
+		}
+		for (int i = 0; i < current.length; i++) {
+			if (!used[i]) {
+				used[i] = true;
+				current[k] = i;
+				permute(current, k + 1, used, result);
+				used[i] = false;
+			}
+		}
+	}
+
+	private static boolean isLine(long mask) {
+		for (int i = 0; i < BitBoard.LINE_COUNT; i++) {
+			if (BitBoard.getLine(i) == mask)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the cell that the given symmetry moves the cell to.
+	 * Symmetry 0 is the identity.
+	 * @param sym From 0 to COUNT - 1
+	 * @param cell
+	 */
+	public static int map(int sym, int cell) {
+		return PERMUTATIONS[sym][cell];
+	}
+
+	/**
+	 * Returns the symmetry that undoes the given one.
+	 * @param sym
+	 */
+	public static int inverse(int sym) {
+		return INVERSES[sym];
+	}
+
+	/**
+	 * Applies a symmetry to a set of cells.
+	 * @param sym
+	 * @param bits The cells, as a bit set
+	 * @return the moved cells, as a bit set
+	 */
+	public static long transform(int sym, long bits) {
+		int[] perm = PERMUTATIONS[sym];
+		long result = 0;
+		for (; bits != 0; bits &= bits - 1)
+			result |= 1L << perm[Long.numberOfTrailingZeros(bits)];
+		return result;
+	}
+
+	/**
+	 * Returns the symmetry that takes the position to its canonical form,
+	 * the image with the smallest (computer, human) pair of bit sets.  All
+	 * positions that are the same up to symmetry have the same canonical
+	 * form.
+	 * @param computer The cells held by the computer
+	 * @param human The cells held by the human
+	 */
+	public static int canonicalSymmetry(long computer, long human) {
+		int best = 0;
+		long bestComputer = computer;
+		long bestHuman = human;
+		for (int s = 1; s < COUNT; s++) {
+			long c = transform(s, computer);
+			int cmp = Long.compareUnsigned(c, bestComputer);
+			if (cmp > 0)
+				continue;
+			long h = transform(s, human);
+			if (cmp < 0 || Long.compareUnsigned(h, bestHuman) < 0) {
+				best = s;
+				bestComputer = c;
+				bestHuman = h;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the Zobrist key of the canonical form of the position, a
+	 * key that is the same for every position equal up to symmetry.
+	 * @param computer The cells held by the computer
+	 * @param human The cells held by the human
+	 * @param toMove The player to move
+	 */
+	public static long canonicalKey(long computer, long human, Player toMove) {
+		int s = canonicalSymmetry(computer, human);
+		return Zobrist.key(transform(s, computer), transform(s, human), toMove);
+	}
+
+	/**
+	 * Returns the canonical key of the board's position.
+	 * @param board
+	 */
+	public static long canonicalKey(BitBoard board) {
+		return canonicalKey(board.getPieces(Player.COMPUTER),
+				board.getPieces(Player.HUMAN), board.getCurrentPlayer());
+	}
+
+	/**
+	 * Returns the canonical key of the board's position.
+	 * @param board
+	 */
+	public static long canonicalKey(QubicBoard board) {
+		return canonicalKey(new BitBoard(board));
+	}
+
+	/**
+	 * Groups the open cells by symmetry: two moves are equivalent when a
+	 * symmetry that leaves the position unchanged takes one to the other.
+	 * @param computer The cells held by the computer
+	 * @param human The cells held by the human
+	 * @return for each cell, the smallest cell equivalent to it, or -1 if
+	 * the cell is taken
+	 */
+	public static int[] moveClasses(long computer, long human) {
+		int[] stabilizer = new int[COUNT];
+		int size = 0;
+		for (int s = 0; s < COUNT; s++) {
+			if (transform(s, computer) == computer && transform(s, human) == human)
+				stabilizer[size++] = s;
+		}
+		long taken = computer | human;
+		int[] classes = new int[BitBoard.CELLS];
+		for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+			if ((taken & (1L << cell)) != 0) {
+				classes[cell] = -1;
+				continue;
+			}
+			int smallest = cell;
+			for (int i = 0; i < size; i++)
+				smallest = Math.min(smallest, PERMUTATIONS[stabilizer[i]][cell]);
+			classes[cell] = smallest;
+		}
+		return classes;
+	}
+
+	/**
+	 * Returns one open cell from each group of equivalent moves.
+	 * @param board
+	 * @return the cells, as a bit set
+	 * @see #moveClasses(long, long)
+	 */
+	public static long distinctMoves(BitBoard board) {
+		int[] classes = moveClasses(board.getPieces(Player.COMPUTER), board.getPieces(Player.HUMAN));
+		long result = 0;
+		for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+			if (classes[cell] == cell)
+				result |= 1L << cell;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns one open Square from each group of equivalent moves.
+	 * For the empty board there are only two, a corner and an edge.
+	 * @param board
+	 * @return the Squares of the board, one per group
+	 */
+	public static List<Square> distinctMoves(QubicBoard board) {
+		List<Square> result = new ArrayList<Square>();
+		for (long moves = distinctMoves(new BitBoard(board)); moves != 0; moves &= moves - 1)
+			result.add(board.getSquare(Long.numberOfTrailingZeros(moves)));
+		return result;
+	}
+}
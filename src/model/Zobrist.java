@@ -0,0 +1,69 @@
+package model;
+
+import java.util.Random;
+
+import model.QubicBoard.Player;
+
+/**
+ * The random numbers behind the 64-bit position keys kept by QubicBoard
+ * and BitBoard.  A position's key is the XOR of one number for each
+ * piece on the board (by player and cell) and one number for the player
+ * to move, so a move changes the key with two XORs.
+ *
+ * The numbers come from a fixed seed, so a position has the same key
+ * in every run of the program and keys can be stored in files.
+ * @author John Thomson
+ */
+public final class Zobrist {
+	private static final long SEED = 0x5175626963L;
+	private static final long[][] PIECES;
+	private static final long[] TO_MOVE;
+
+	static {
+		Random r = new Random(SEED);
+		int players = Player.values().length;
+		PIECES = new long[players][BitBoard.CELLS];
+		TO_MOVE = new long[players];
+		for (int p = 0; p < players; p++) {
+			for (int cell = 0; cell < BitBoard.CELLS; cell++)
+				PIECES[p][cell] = r.nextLong();
+			TO_MOVE[p] = r.nextLong();
+		}
+	}
+
+	private Zobrist() {
+	}
+
+	/**
+	 * Returns the number for the given player holding the given cell.
+	 * @param p
+	 * @param cell
+	 */
+	public static long piece(Player p, int cell) {
+		return PIECES[p.ordinal()][cell];
+	}
+
+	/**
+	 * Returns the number for the given player being the one to move.
+	 * @param p
+	 */
+	public static long toMove(Player p) {
+		return TO_MOVE[p.ordinal()];
+	}
+
+	/**
+	 * Computes a key from scratch.
+	 * @param computer The cells held by the computer, as a bit set
+	 * @param human The cells held by the human, as a bit set
+	 * @param toMove The player to move
+	 * @return key
+	 */
+	public static long key(long computer, long human, Player toMove) {
+		long key = TO_MOVE[toMove.ordinal()];
+		for (long bits = computer; bits != 0; bits &= bits - 1)
+			key ^= PIECES[Player.COMPUTER.ordinal()][Long.numberOfTrailingZeros(bits)];
+		for (long bits = human; bits != 0; bits &= bits - 1)
+			key ^= PIECES[Player.HUMAN.ordinal()][Long.numberOfTrailingZeros(bits)];
+		return key;
+	}
+}